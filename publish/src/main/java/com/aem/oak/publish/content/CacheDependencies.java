@@ -0,0 +1,66 @@
+package com.aem.oak.publish.content;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Content a cached rendering was built from: the paths of the nodes it
+ * includes and the tags it shows. Collected while rendering and indexed by
+ * {@link CacheService}, so that replicating one node evicts every entry that
+ * displays it, not just the entry for its own path.
+ *
+ * <p>Large renderings stop recording individual paths once {@link #MAX_PATHS}
+ * is reached and are treated as depending on the whole subtree instead.</p>
+ */
+public final class CacheDependencies {
+
+    static final int MAX_PATHS = 256;
+
+    private final Set<String> paths = new LinkedHashSet<>();
+    private final Set<String> tags = new LinkedHashSet<>();
+    private boolean subtree;
+
+    public void addPath(String path) {
+        if (subtree) {
+            return;
+        }
+        paths.add(path);
+        if (paths.size() > MAX_PATHS) {
+            paths.clear();
+            subtree = true;
+        }
+    }
+
+    public void addTag(String tag) {
+        if (tag != null && !tag.isEmpty()) {
+            tags.add(tag);
+        }
+    }
+
+    /**
+     * Depend on the whole subtree, as for renderings that outgrew {@link #MAX_PATHS}.
+     */
+    void markSubtree() {
+        paths.clear();
+        subtree = true;
+    }
+
+    /**
+     * Individually recorded node paths, empty when {@link #isSubtree()}.
+     */
+    public Set<String> getPaths() {
+        return Collections.unmodifiableSet(paths);
+    }
+
+    public Set<String> getTags() {
+        return Collections.unmodifiableSet(tags);
+    }
+
+    /**
+     * Whether the rendering depends on everything below its own path.
+     */
+    public boolean isSubtree() {
+        return subtree;
+    }
+}
@@ -0,0 +1,173 @@
+package com.aem.oak.publish.content;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Binary serialization of a {@link CacheService.CacheEntry} into a single value.
+ *
+ * <pre>
+ * magic (1) | version (1) | flags (1) | createdTime (8) | lastModified (8)
+ * contentType (str) | etag (str, empty = none)
+ * dependency count (4) | paths (str...) | tag count (4) | tags (str...)
+ * body length (4) | body
+ * </pre>
+ *
+ * Strings are an unsigned short length followed by UTF-8 bytes. Bodies at or
+ * above the compression threshold are stored gzip-compressed, which is marked
+ * in the flags; gzip rather than LZ4 keeps the stored bytes servable as-is to
+ * clients that accept gzip. Entries that already carry a gzip variant store
+ * that variant, and decoded compressed values keep it.
+ */
+public final class CacheEntryCodec {
+
+    private static final byte MAGIC = 'C';
+    private static final byte VERSION = 1;
+
+    private static final int FLAG_SUBTREE = 1;
+    private static final int FLAG_GZIP = 2;
+
+    private static final int MAX_STRING_LENGTH = 0xFFFF;
+
+    private CacheEntryCodec() {
+    }
+
+    public static byte[] encode(CacheService.CacheEntry entry) {
+        return encode(entry, 0);
+    }
+
+    /**
+     * @param compressionThreshold smallest body that is compressed, 0 to never compress
+     */
+    public static byte[] encode(CacheService.CacheEntry entry, int compressionThreshold) {
+        byte[] body = entry.getData();
+        CacheDependencies dependencies = entry.getDependencies();
+
+        int flags = dependencies != null && dependencies.isSubtree() ? FLAG_SUBTREE : 0;
+        if (entry.getGzipData() != null) {
+            body = entry.getGzipData();
+            flags |= FLAG_GZIP;
+        } else if (compressionThreshold > 0 && body.length >= compressionThreshold) {
+            byte[] compressed = ContentEncoding.gzip(body);
+            // Incompressible bodies are kept raw
+            if (compressed.length < body.length) {
+                body = compressed;
+                flags |= FLAG_GZIP;
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length + 256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(flags);
+            out.writeLong(entry.getCreatedTime());
+            out.writeLong(entry.getLastModified());
+            writeString(out, entry.getContentType());
+            writeString(out, entry.getETag());
+
+            if (dependencies != null) {
+                writeStrings(out, dependencies.getPaths());
+                writeStrings(out, dependencies.getTags());
+            } else {
+                out.writeInt(0);
+                out.writeInt(0);
+            }
+
+            out.writeInt(body.length);
+            out.write(body);
+        } catch (IOException e) {
+            // Writing to memory cannot fail
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the decoded entry, or null if the value is not in this format
+     */
+    public static CacheService.CacheEntry decode(byte[] value) {
+        if (value == null || value.length < 3 || value[0] != MAGIC || value[1] != VERSION) {
+            return null;
+        }
+
+        try {
+            ByteBuffer in = ByteBuffer.wrap(value, 2, value.length - 2);
+            int flags = in.get();
+            long createdTime = in.getLong();
+            long lastModified = in.getLong();
+            String contentType = readString(in);
+            String etag = readString(in);
+
+            CacheDependencies dependencies = new CacheDependencies();
+            int pathCount = in.getInt();
+            for (int i = 0; i < pathCount; i++) {
+                dependencies.addPath(readString(in));
+            }
+            int tagCount = in.getInt();
+            for (int i = 0; i < tagCount; i++) {
+                dependencies.addTag(readString(in));
+            }
+            if ((flags & FLAG_SUBTREE) != 0) {
+                dependencies.markSubtree();
+            }
+
+            int length = in.getInt();
+            if (length < 0 || length > in.remaining()) {
+                return null;
+            }
+            byte[] body = new byte[length];
+            in.get(body);
+            byte[] gzip = null;
+            if ((flags & FLAG_GZIP) != 0) {
+                gzip = body;
+                body = gunzip(gzip);
+            }
+
+            CacheService.CacheEntry entry = new CacheService.CacheEntry(body, contentType,
+                    etag.isEmpty() ? null : etag, lastModified, createdTime, dependencies);
+            return gzip != null ? entry.withGzip(gzip) : entry;
+        } catch (BufferUnderflowException | IllegalArgumentException | IOException e) {
+            return null;
+        }
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return gzip.readAllBytes();
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, Collection<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        if (bytes.length > MAX_STRING_LENGTH) {
+            throw new IllegalArgumentException("String too long for cache header: " + bytes.length);
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = Short.toUnsignedInt(in.getShort());
+        if (length > in.remaining()) {
+            throw new IllegalArgumentException("Truncated cache header");
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,119 @@
+package com.aem.oak.publish.content;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Cache invalidation broadcast between publish instances over Redis pub/sub.
+ * Encoded as {@code origin TAB type TAB argument} so it stays readable in
+ * {@code redis-cli SUBSCRIBE}.
+ *
+ * <p>The origin may carry the node store revision the change was committed at
+ * as {@code instance@revision}. Instances that do not know about it only ever
+ * compare the origin with their own id, so they still decode the message.</p>
+ *
+ * <p>{@link Type#PATHS} carries the paths of one replication separated by
+ * newlines, which repository names cannot contain.</p>
+ */
+public final class CacheInvalidation {
+
+    public enum Type {
+        PATH,
+        PATHS,
+        SUBTREE,
+        PATTERN,
+        TAG,
+        CLEAR
+    }
+
+    private static final char SEPARATOR = '\t';
+    private static final char REVISION_SEPARATOR = '@';
+    private static final String PATH_SEPARATOR = "\n";
+
+    private final String origin;
+    private final Type type;
+    private final String argument;
+    private final String revision;
+
+    public CacheInvalidation(String origin, Type type, String argument) {
+        this(origin, type, argument, null);
+    }
+
+    public CacheInvalidation(String origin, Type type, String argument, String revision) {
+        this.origin = origin;
+        this.type = type;
+        this.argument = argument != null ? argument : "";
+        this.revision = revision;
+    }
+
+    /**
+     * Instance that published the invalidation.
+     */
+    public String getOrigin() {
+        return origin;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Path, paths, pattern or tag, depending on the type; empty for {@link Type#CLEAR}.
+     */
+    public String getArgument() {
+        return argument;
+    }
+
+    /**
+     * Paths of a {@link Type#PATHS} or {@link Type#PATH} invalidation.
+     */
+    public List<String> getPaths() {
+        return type == Type.PATHS ? splitPaths(argument) : List.of(argument);
+    }
+
+    /**
+     * Argument of a {@link Type#PATHS} invalidation.
+     */
+    public static String joinPaths(Collection<String> paths) {
+        return String.join(PATH_SEPARATOR, paths);
+    }
+
+    public static List<String> splitPaths(String argument) {
+        return Arrays.asList(argument.split(PATH_SEPARATOR));
+    }
+
+    /**
+     * Node store revision at which the change was committed, or null if unknown.
+     */
+    public String getRevision() {
+        return revision;
+    }
+
+    public String encode() {
+        String source = revision != null ? origin + REVISION_SEPARATOR + revision : origin;
+        return source + SEPARATOR + type.name() + SEPARATOR + argument;
+    }
+
+    /**
+     * @return the decoded invalidation, or null if the message is malformed
+     */
+    public static CacheInvalidation decode(String message) {
+        int first = message.indexOf(SEPARATOR);
+        int second = first >= 0 ? message.indexOf(SEPARATOR, first + 1) : -1;
+        if (second < 0) {
+            return null;
+        }
+        try {
+            Type type = Type.valueOf(message.substring(first + 1, second));
+            String source = message.substring(0, first);
+            int at = source.indexOf(REVISION_SEPARATOR);
+            return at >= 0
+                    ? new CacheInvalidation(source.substring(0, at), type, message.substring(second + 1),
+                            source.substring(at + 1))
+                    : new CacheInvalidation(source, type, message.substring(second + 1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package com.aem.oak.publish.content;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 import org.osgi.service.component.annotations.*;
 import org.osgi.service.metatype.annotations.AttributeDefinition;
 import org.osgi.service.metatype.annotations.Designate;
@@ -7,16 +11,38 @@ import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 
 /**
  * In-memory cache service for content delivery on Publish tier.
  * Provides fast response caching with TTL-based expiration.
+ *
+ * <p>Storage is a Caffeine cache, so admission (TinyLFU frequency sketch) and
+ * eviction (segmented LRU) are amortized O(1) and never scan the entries.</p>
  */
 @Component(service = CacheService.class, immediate = true)
 @Designate(ocd = CacheService.Config.class)
@@ -24,13 +50,25 @@ public class CacheService {
 
     private static final Logger LOG = LoggerFactory.getLogger(CacheService.class);
 
+    // Approximate fixed footprint of the key, item, entry and array headers
+    private static final int ENTRY_OVERHEAD = 160;
+    // Set node plus string header of a recorded dependency
+    private static final int DEPENDENCY_OVERHEAD = 80;
+    private static final int SNAPSHOT_MAGIC = 0x41435331; // "ACS1"
+    private static final int MAX_SNAPSHOT_VALUE = 64 * 1024 * 1024;
+    // Bound on entries evicted to make room for one off-heap body
+    private static final int MAX_OFF_HEAP_EVICTIONS = 64;
+
     @ObjectClassDefinition(name = "AEM Oak Cache Service Configuration")
     public @interface Config {
         @AttributeDefinition(name = "Enabled", description = "Enable caching")
         boolean enabled() default true;
 
-        @AttributeDefinition(name = "Max Entries", description = "Maximum number of cache entries")
-        int maxEntries() default 10000;
+        @AttributeDefinition(name = "Max Size (bytes)", description = "Memory budget for cached responses (0 = derive from max heap)")
+        long maxSizeBytes() default 0;
+
+        @AttributeDefinition(name = "Max Heap Percent", description = "Share of max heap used as budget when no explicit size is set")
+        int maxHeapPercent() default 10;
 
         @AttributeDefinition(name = "TTL (seconds)", description = "Time-to-live for cache entries")
         int ttlSeconds() default 300;
@@ -40,19 +78,79 @@ public class CacheService {
 
         @AttributeDefinition(name = "Cleanup Interval (seconds)", description = "Interval for cleaning expired entries")
         int cleanupIntervalSeconds() default 60;
+
+        @AttributeDefinition(name = "Coalesce Timeout (ms)", description = "How long concurrent misses wait for an in-flight render")
+        int coalesceTimeoutMs() default 2000;
+
+        @AttributeDefinition(name = "Stale While Revalidate (seconds)", description = "How long expired entries are served while a refresh runs")
+        int staleWhileRevalidateSeconds() default 60;
+
+        @AttributeDefinition(name = "Stale If Error (seconds)", description = "How long expired entries are served when the repository fails")
+        int staleIfErrorSeconds() default 3600;
+
+        @AttributeDefinition(name = "Off-Heap Storage", description = "Store cached bodies in direct memory slabs instead of the heap")
+        boolean offHeapEnabled() default false;
+
+        @AttributeDefinition(name = "Off-Heap Page Size (bytes)", description = "Allocation unit of the off-heap slabs")
+        int offHeapPageSize() default 4096;
+
+        @AttributeDefinition(name = "Redis L2", description = "Share rendered entries and invalidations with other instances through Redis")
+        boolean l2Enabled() default true;
+
+        @AttributeDefinition(name = "Gzip Variants", description = "Compress text bodies once when cached and serve the gzip variant to clients that accept it")
+        boolean gzipEnabled() default true;
+
+        @AttributeDefinition(name = "Gzip Min Size (bytes)", description = "Smallest body for which a gzip variant is kept")
+        int gzipMinSize() default 1024;
     }
 
-    private final Map<String, CacheItem> cache = new ConcurrentHashMap<>();
+    private volatile Cache<String, CacheItem> cache;
+    // Cached keys by content path they render or include, sorted so a subtree is a contiguous range
+    private final ConcurrentNavigableMap<String, Set<String>> pathIndex = new ConcurrentSkipListMap<>();
+    // Cached keys depending on everything below their path
+    private final Map<String, Set<String>> subtreeIndex = new ConcurrentHashMap<>();
+    // Cached keys by the tags they show
+    private final Map<String, Set<String>> tagIndex = new ConcurrentHashMap<>();
+    private final Object indexLock = new Object();
+    private final Map<String, Flight> inFlight = new ConcurrentHashMap<>();
     private final AtomicLong hits = new AtomicLong(0);
     private final AtomicLong misses = new AtomicLong(0);
     private final AtomicLong evictions = new AtomicLong(0);
+    private final AtomicLong coalesced = new AtomicLong(0);
+    private final AtomicLong coalesceTimeouts = new AtomicLong(0);
+    private final AtomicLong staleHits = new AtomicLong(0);
+    private final AtomicLong staleIfError = new AtomicLong(0);
+    private final AtomicLong l2Hits = new AtomicLong(0);
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL)
+    private RedisCacheService redisCacheService;
+
+    private final Consumer<CacheInvalidation> remoteInvalidationListener = this::onRemoteInvalidation;
 
     private Config config;
+    private long maxWeight;
+    private OffHeapSlabStore offHeapStore;
     private ScheduledExecutorService cleanupScheduler;
 
     @Activate
     protected void activate(Config config) {
         this.config = config;
+        this.maxWeight = resolveMaxWeight(config);
+        // Off-heap entries weigh at least their whole pages, so an arena of the
+        // weight budget rounded up to a page holds everything Caffeine keeps
+        this.offHeapStore = config.enabled() && config.offHeapEnabled()
+                ? new OffHeapSlabStore(maxWeight + config.offHeapPageSize() - 1, config.offHeapPageSize())
+                : null;
+        Caffeine<String, CacheItem> builder = Caffeine.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher(this::weigh)
+                .expireAfter(new HardExpiry())
+                .removalListener(this::onRemoval);
+        if (offHeapStore != null) {
+            // Release pages on the evicting thread so a full arena frees up immediately
+            builder.executor(Runnable::run);
+        }
+        this.cache = builder.build();
 
         if (config.enabled()) {
             // Start cleanup scheduler
@@ -63,8 +161,12 @@ public class CacheService {
                     config.cleanupIntervalSeconds(),
                     TimeUnit.SECONDS);
 
-            LOG.info("Cache service activated, maxEntries={}, ttl={}s",
-                    config.maxEntries(), config.ttlSeconds());
+            if (redisCacheService != null && config.l2Enabled()) {
+                redisCacheService.addInvalidationListener(remoteInvalidationListener);
+            }
+
+            LOG.info("Cache service activated, maxSize={} bytes, ttl={}s, offHeap={}, l2={}",
+                    maxWeight, config.ttlSeconds(), offHeapStore != null, redisCacheService != null && config.l2Enabled());
         } else {
             LOG.info("Cache service is disabled");
         }
@@ -72,6 +174,9 @@ public class CacheService {
 
     @Deactivate
     protected void deactivate() {
+        if (redisCacheService != null) {
+            redisCacheService.removeInvalidationListener(remoteInvalidationListener);
+        }
         if (cleanupScheduler != null) {
             cleanupScheduler.shutdown();
             try {
@@ -84,7 +189,7 @@ public class CacheService {
             }
         }
 
-        cache.clear();
+        cache.invalidateAll();
         LOG.info("Cache service deactivated");
     }
 
@@ -95,7 +200,8 @@ public class CacheService {
     }
 
     /**
-     * Get cached content.
+     * Get cached content. Entries past their TTL are still returned during the
+     * stale-while-revalidate window; use {@link #needsRevalidation} to detect them.
      */
     public CacheEntry get(String path, String selector, String extension) {
         if (!config.enabled()) {
@@ -103,24 +209,142 @@ public class CacheService {
         }
 
         String key = buildKey(path, selector, extension);
-        CacheItem item = cache.get(key);
+        CacheItem item = cache.getIfPresent(key);
 
-        if (item == null) {
-            misses.incrementAndGet();
-            return null;
+        long now = System.currentTimeMillis();
+        if (item == null || now >= item.getHardExpiry()) {
+            return getFromL2(path, selector, extension);
+        }
+
+        if (now >= item.getSoftExpiry()) {
+            if (now >= item.getSoftExpiry() + config.staleWhileRevalidateSeconds() * 1000L) {
+                // Only retained as a fallback for repository errors; another instance may have a fresh copy
+                return getFromL2(path, selector, extension);
+            }
+            staleHits.incrementAndGet();
+        }
+
+        hits.incrementAndGet();
+        return item.getEntry();
+    }
+
+    /**
+     * Get fresh cached content for several paths sharing a selector and extension.
+     * L1 misses are fetched from L2 in one round trip and promoted.
+     *
+     * @return the entries found, keyed by path
+     */
+    public Map<String, CacheEntry> getAll(Collection<String> paths, String selector, String extension) {
+        Map<String, CacheEntry> found = new HashMap<>();
+        if (!config.enabled()) {
+            return found;
+        }
+
+        long now = System.currentTimeMillis();
+        List<String> missing = new ArrayList<>();
+        for (String path : paths) {
+            CacheItem item = cache.getIfPresent(buildKey(path, selector, extension));
+            // Batches have no background refresh, so restored entries are rendered again
+            if (item != null && now < item.getSoftExpiry() && !item.getEntry().isUnvalidated()) {
+                found.put(path, item.getEntry());
+            } else {
+                missing.add(path);
+            }
+        }
+        hits.addAndGet(found.size());
+
+        RedisCacheService l2 = l2();
+        if (l2 != null && !missing.isEmpty()) {
+            Map<String, CacheEntry> remote = l2.getAll(missing, selector, extension);
+            for (Map.Entry<String, CacheEntry> entry : remote.entrySet()) {
+                putLocal(entry.getKey(), selector, extension, entry.getValue());
+                found.put(entry.getKey(), entry.getValue());
+            }
+            hits.addAndGet(remote.size());
+            l2Hits.addAndGet(remote.size());
+            misses.addAndGet(missing.size() - remote.size());
+        } else {
+            misses.addAndGet(missing.size());
+        }
+        return found;
+    }
+
+    /**
+     * Put several entries sharing a selector and extension, writing L2 in one pipeline.
+     */
+    public void putAll(Map<String, CacheEntry> entries, String selector, String extension) {
+        if (!config.enabled() || entries.isEmpty()) {
+            return;
         }
 
-        if (item.isExpired()) {
-            cache.remove(key);
+        Map<String, CacheEntry> compressed = new HashMap<>();
+        for (Map.Entry<String, CacheEntry> entry : entries.entrySet()) {
+            if (entry.getValue().getLength() > config.maxEntrySize()) {
+                LOG.debug("Entry too large for cache: {} bytes", entry.getValue().getLength());
+                continue;
+            }
+            CacheEntry value = withGzipVariant(entry.getValue());
+            putLocal(entry.getKey(), selector, extension, value);
+            compressed.put(entry.getKey(), value);
+        }
+
+        RedisCacheService l2 = l2();
+        if (l2 != null) {
+            l2.putAll(compressed, selector, extension);
+        }
+    }
+
+    /**
+     * Look up an L1 miss in Redis and promote a hit into L1.
+     */
+    private CacheEntry getFromL2(String path, String selector, String extension) {
+        RedisCacheService l2 = l2();
+        CacheEntry entry = l2 != null ? l2.get(path, selector, extension) : null;
+        if (entry == null) {
             misses.incrementAndGet();
             return null;
         }
 
         hits.incrementAndGet();
-        item.recordAccess();
+        l2Hits.incrementAndGet();
+        putLocal(path, selector, extension, entry);
+        return entry;
+    }
+
+    /**
+     * Get an expired entry that is still within the stale-if-error grace period.
+     * Used when rendering fails so that a repository outage does not become an error.
+     */
+    public CacheEntry getStale(String path, String selector, String extension) {
+        if (!config.enabled()) {
+            return null;
+        }
+
+        CacheItem item = cache.getIfPresent(buildKey(path, selector, extension));
+        if (item == null || System.currentTimeMillis() >= item.getHardExpiry()) {
+            return null;
+        }
+
+        staleIfError.incrementAndGet();
         return item.getEntry();
     }
 
+    /**
+     * Whether an entry is past its TTL, or restored from a snapshot and not yet
+     * checked against the repository, and should be refreshed in the background.
+     */
+    public boolean needsRevalidation(CacheEntry entry) {
+        return entry.isUnvalidated() || System.currentTimeMillis() >= softExpiry(entry);
+    }
+
+    public int getStaleWhileRevalidateSeconds() {
+        return config.staleWhileRevalidateSeconds();
+    }
+
+    public int getStaleIfErrorSeconds() {
+        return config.staleIfErrorSeconds();
+    }
+
     /**
      * Put content in cache.
      */
@@ -129,74 +353,366 @@ public class CacheService {
             return;
         }
 
-        if (entry.getData().length > config.maxEntrySize()) {
-            LOG.debug("Entry too large for cache: {} bytes", entry.getData().length);
+        if (entry.getLength() > config.maxEntrySize()) {
+            LOG.debug("Entry too large for cache: {} bytes", entry.getLength());
             return;
         }
 
-        // Check cache size and evict if necessary
-        if (cache.size() >= config.maxEntries()) {
-            evictOldest();
+        // Compressed once here and shared by L1 and L2
+        entry = withGzipVariant(entry);
+        putLocal(path, selector, extension, entry);
+
+        RedisCacheService l2 = l2();
+        if (l2 != null) {
+            l2.put(path, selector, extension, entry);
+        }
+    }
+
+    private void putLocal(String path, String selector, String extension, CacheEntry entry) {
+        if (entry.getLength() > config.maxEntrySize()) {
+            return;
         }
 
         String key = buildKey(path, selector, extension);
-        long expirationTime = System.currentTimeMillis() + (config.ttlSeconds() * 1000L);
+        entry = withGzipVariant(entry);
+        if (offHeapStore != null && !entry.isOffHeap()) {
+            entry = toOffHeap(entry);
+            if (entry == null) {
+                LOG.debug("Off-heap storage full, not caching: {}", key);
+                return;
+            }
+        }
 
-        cache.put(key, new CacheItem(entry, expirationTime));
-        LOG.debug("Cached: {} (size={} bytes)", key, entry.getData().length);
+        long softExpiry = softExpiry(entry);
+        long hardExpiry = softExpiry
+                + Math.max(config.staleWhileRevalidateSeconds(), config.staleIfErrorSeconds()) * 1000L;
+
+        CacheItem item = new CacheItem(path, entry, softExpiry, hardExpiry);
+        cache.put(key, item);
+        index(key, item);
+        LOG.debug("Cached: {} (size={} bytes)", key, entry.getLength());
     }
 
     /**
-     * Invalidate cache entry for a specific path.
+     * Write the hottest fresh entries, most frequently used first, so that
+     * another instance can start warm with {@link #loadSnapshot}.
+     *
+     * @return the number of entries written
      */
-    public void invalidate(String path) {
+    public int writeSnapshot(OutputStream out, int limit) throws IOException {
+        Map<String, CacheItem> hottest = cache.policy().eviction()
+                .map(eviction -> eviction.hottest(limit))
+                .orElse(Collections.emptyMap());
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(SNAPSHOT_MAGIC);
+        long now = System.currentTimeMillis();
+        int written = 0;
+        for (Map.Entry<String, CacheItem> hot : hottest.entrySet()) {
+            CacheItem item = hot.getValue();
+            CacheEntry entry = item.getEntry();
+            if (now >= item.getSoftExpiry() || !entry.retain()) {
+                continue;
+            }
+            byte[] value;
+            try {
+                value = CacheEntryCodec.encode(entry, config.gzipMinSize());
+            } finally {
+                entry.release();
+            }
+
+            data.writeBoolean(true);
+            data.writeUTF(item.getPath());
+            // Selector and extension, which never contain a colon
+            data.writeUTF(hot.getKey().substring(item.getPath().length() + 1));
+            data.writeInt(value.length);
+            data.write(value);
+            written++;
+        }
+        data.writeBoolean(false);
+        data.flush();
+        return written;
+    }
+
+    /**
+     * Load entries written by {@link #writeSnapshot} into L1 only. They get a
+     * fresh TTL but are marked unvalidated, so the first request for each
+     * checks it against the repository before it is served.
+     * Keys this instance has already cached are left alone.
+     *
+     * @return the number of entries loaded
+     */
+    public int loadSnapshot(InputStream in) throws IOException {
         if (!config.enabled()) {
-            return;
+            return 0;
         }
 
-        String prefix = path + ":";
-        cache.entrySet().removeIf(entry -> {
-            if (entry.getKey().startsWith(prefix) || entry.getKey().equals(path + "::")) {
-                evictions.incrementAndGet();
-                return true;
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != SNAPSHOT_MAGIC) {
+            throw new IOException("Not a cache snapshot");
+        }
+        long now = System.currentTimeMillis();
+        int loaded = 0;
+        while (data.readBoolean()) {
+            String path = data.readUTF();
+            String variant = data.readUTF();
+            int length = data.readInt();
+            if (length < 0 || length > MAX_SNAPSHOT_VALUE) {
+                throw new IOException("Corrupt cache snapshot entry for " + path);
             }
-            return false;
-        });
+            byte[] value = new byte[length];
+            data.readFully(value);
 
+            CacheEntry entry = CacheEntryCodec.decode(value);
+            int colon = variant.indexOf(':');
+            if (entry == null || colon < 0) {
+                continue;
+            }
+            String selector = variant.substring(0, colon);
+            String extension = variant.substring(colon + 1);
+            if (cache.getIfPresent(buildKey(path, selector, extension)) == null) {
+                putLocal(path, selector, extension, entry.asUnvalidated(now));
+                loaded++;
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Start rendering a key, or join a render already in flight for it.
+     * The returned leader must always call {@link Flight#complete}; followers
+     * call {@link Flight#await} and render themselves if it returns null.
+     *
+     * @return the flight, or null when caching is disabled
+     */
+    public Flight startFlight(String path, String selector, String extension) {
+        if (!config.enabled()) {
+            return null;
+        }
+
+        String key = buildKey(path, selector, extension);
+        Flight flight = new Flight(key, new CompletableFuture<>(), true);
+        Flight existing = inFlight.putIfAbsent(key, flight);
+        return existing != null ? new Flight(key, existing.future, false) : flight;
+    }
+
+    /**
+     * Largest body the cache will accept, or 0 when caching is disabled.
+     */
+    public int getMaxEntrySize() {
+        return config.enabled() ? config.maxEntrySize() : 0;
+    }
+
+    /**
+     * Invalidate cache entry for a specific path, and entries that include it.
+     */
+    public void invalidate(String path) {
+        if (!config.enabled()) {
+            return;
+        }
+
+        invalidateLocal(path);
+        propagate(CacheInvalidation.Type.PATH, path);
         LOG.debug("Invalidated cache for: {}", path);
     }
 
     /**
-     * Invalidate cache entries matching a path pattern.
+     * Invalidate the entries of several paths as {@link #invalidate(String)}
+     * does for each, with one L2 round trip and one broadcast.
+     */
+    public void invalidatePaths(Collection<String> paths) {
+        if (!config.enabled() || paths.isEmpty()) {
+            return;
+        }
+
+        for (String path : paths) {
+            invalidateLocal(path);
+        }
+        propagate(CacheInvalidation.Type.PATHS, CacheInvalidation.joinPaths(paths));
+        LOG.debug("Invalidated cache for {} paths", paths.size());
+    }
+
+    /**
+     * Invalidate cache entries for a path and all of its descendants.
+     */
+    public void invalidateSubtree(String path) {
+        if (!config.enabled()) {
+            return;
+        }
+
+        invalidateSubtreeLocal(path);
+        propagate(CacheInvalidation.Type.SUBTREE, path);
+        LOG.debug("Invalidated cache for subtree: {}", path);
+    }
+
+    /**
+     * Invalidate every cache entry that shows the given tag.
+     */
+    public void invalidateTag(String tag) {
+        if (!config.enabled()) {
+            return;
+        }
+
+        invalidateTagLocal(tag);
+        propagate(CacheInvalidation.Type.TAG, tag);
+        LOG.debug("Invalidated cache for tag: {}", tag);
+    }
+
+    /**
+     * Invalidate every cache entry that shows any of the given tags.
+     */
+    public void invalidateTags(Collection<String> tags) {
+        for (String tag : tags) {
+            invalidateTag(tag);
+        }
+    }
+
+    /**
+     * Invalidate cache entries matching a path pattern, where {@code *} matches
+     * any sequence of characters. Only paths sharing the literal prefix of the
+     * pattern are visited.
      */
     public void invalidatePattern(String pathPattern) {
         if (!config.enabled()) {
             return;
         }
 
-        String regex = pathPattern.replace("*", ".*");
-        cache.entrySet().removeIf(entry -> {
-            String keyPath = entry.getKey().split(":")[0];
-            if (keyPath.matches(regex)) {
-                evictions.incrementAndGet();
-                return true;
-            }
-            return false;
-        });
+        if (pathPattern.indexOf('*') < 0) {
+            invalidate(pathPattern);
+            return;
+        }
 
+        invalidatePatternLocal(pathPattern);
+        propagate(CacheInvalidation.Type.PATTERN, pathPattern);
         LOG.debug("Invalidated cache for pattern: {}", pathPattern);
     }
 
+    private void invalidateLocal(String path) {
+        removeKeys(pathIndex.get(path));
+        removeSubtreeDependents(path);
+    }
+
+    private void invalidateSubtreeLocal(String path) {
+        invalidateLocal(path);
+        for (Set<String> keys : descendants(path).values()) {
+            removeKeys(keys);
+        }
+    }
+
+    private void invalidateTagLocal(String tag) {
+        removeKeys(tagIndex.get(tag));
+    }
+
+    private void invalidatePatternLocal(String pathPattern) {
+        int wildcard = pathPattern.indexOf('*');
+        if (wildcard < 0) {
+            invalidateLocal(pathPattern);
+            return;
+        }
+
+        String prefix = pathPattern.substring(0, wildcard);
+        Pattern pattern = globToPattern(pathPattern);
+        NavigableMap<String, Set<String>> candidates = prefix.isEmpty()
+                ? pathIndex
+                : pathIndex.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+        for (Map.Entry<String, Set<String>> entry : candidates.entrySet()) {
+            if (pattern.matcher(entry.getKey()).matches()) {
+                removeKeys(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Apply an invalidation to L2 and broadcast it so other instances drop it from their L1.
+     * Redis keeps its own path, tree and tag sets, so dependents are found there as well.
+     * While the Redis circuit is open the invalidation is skipped, and Redis is
+     * flushed before it serves entries again.
+     */
+    private void propagate(CacheInvalidation.Type type, String argument) {
+        RedisCacheService l2 = redisCacheService;
+        if (l2 == null || !config.l2Enabled()) {
+            return;
+        }
+
+        switch (type) {
+            case PATH:
+                l2.invalidate(argument);
+                break;
+            case PATHS:
+                l2.invalidatePaths(CacheInvalidation.splitPaths(argument));
+                break;
+            case SUBTREE:
+                l2.invalidateSubtree(argument);
+                break;
+            case PATTERN:
+                l2.invalidatePattern(argument);
+                break;
+            case TAG:
+                l2.invalidateTag(argument);
+                break;
+            case CLEAR:
+                l2.clear();
+                break;
+            default:
+                break;
+        }
+        l2.publish(type, argument);
+    }
+
+    /**
+     * Apply an invalidation published by another instance to L1 only.
+     */
+    private void onRemoteInvalidation(CacheInvalidation invalidation) {
+        if (!config.enabled()) {
+            return;
+        }
+
+        String argument = invalidation.getArgument();
+        switch (invalidation.getType()) {
+            case PATH:
+                invalidateLocal(argument);
+                break;
+            case PATHS:
+                for (String path : invalidation.getPaths()) {
+                    invalidateLocal(path);
+                }
+                break;
+            case SUBTREE:
+                invalidateSubtreeLocal(argument);
+                break;
+            case PATTERN:
+                invalidatePatternLocal(argument);
+                break;
+            case TAG:
+                invalidateTagLocal(argument);
+                break;
+            case CLEAR:
+                clearLocal();
+                break;
+            default:
+                break;
+        }
+        LOG.debug("Applied remote invalidation {} {}", invalidation.getType(), argument);
+    }
+
     /**
      * Clear entire cache.
      */
     public void clear() {
-        int size = cache.size();
-        cache.clear();
-        evictions.addAndGet(size);
+        long size = clearLocal();
+        if (config.enabled()) {
+            propagate(CacheInvalidation.Type.CLEAR, "");
+        }
         LOG.info("Cache cleared, {} entries removed", size);
     }
 
+    private long clearLocal() {
+        long size = cache.estimatedSize();
+        cache.invalidateAll();
+        evictions.addAndGet(size);
+        return size;
+    }
+
     /**
      * Get cache statistics.
      */
@@ -206,108 +722,572 @@ public class CacheService {
         long totalRequests = totalHits + totalMisses;
         double hitRate = totalRequests > 0 ? (double) totalHits / totalRequests : 0.0;
 
-        long totalSize = cache.values().stream()
-                .mapToLong(item -> item.getEntry().getData().length)
-                .sum();
+        long totalSize = cache.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0L))
+                .orElse(0L);
 
         return new CacheStats(
-                cache.size(),
-                config.maxEntries(),
+                (int) cache.estimatedSize(),
+                maxWeight,
                 totalSize,
                 totalHits,
                 totalMisses,
                 evictions.get(),
-                hitRate
+                hitRate,
+                coalesced.get(),
+                coalesceTimeouts.get(),
+                staleHits.get(),
+                staleIfError.get(),
+                l2Hits.get()
         );
     }
 
+    /**
+     * The shared L2 cache, or null when it is disabled or unreachable.
+     */
+    private RedisCacheService l2() {
+        RedisCacheService l2 = redisCacheService;
+        return l2 != null && config.l2Enabled() && l2.isAvailable() ? l2 : null;
+    }
+
     private String buildKey(String path, String selector, String extension) {
         return path + ":" + (selector != null ? selector : "") + ":" + (extension != null ? extension : "");
     }
 
-    private void evictOldest() {
-        // Simple LRU eviction - remove the entry with oldest access time
-        cache.entrySet().stream()
-                .min((a, b) -> Long.compare(a.getValue().getLastAccessTime(), b.getValue().getLastAccessTime()))
-                .ifPresent(oldest -> {
-                    cache.remove(oldest.getKey());
-                    evictions.incrementAndGet();
-                });
+    /**
+     * Memory budget in bytes, either configured or a share of the max heap.
+     */
+    private static long resolveMaxWeight(Config config) {
+        if (config.maxSizeBytes() > 0) {
+            return config.maxSizeBytes();
+        }
+        int percent = Math.max(1, Math.min(config.maxHeapPercent(), 50));
+        return Runtime.getRuntime().maxMemory() / 100 * percent;
     }
 
-    private void cleanup() {
-        long now = System.currentTimeMillis();
-        int removed = 0;
+    /**
+     * Estimated heap footprint of a cached item: key, body and header strings.
+     */
+    private int weigh(String key, CacheItem item) {
+        CacheEntry entry = item.getEntry();
+        long weight = ENTRY_OVERHEAD
+                + 2L * key.length()
+                + bodyWeight(entry)
+                + (entry.getGzipData() != null ? entry.getGzipData().length : 0)
+                + 2L * length(entry.getContentType())
+                + 2L * length(entry.getETag());
+        CacheDependencies dependencies = entry.getDependencies();
+        if (dependencies != null) {
+            for (String path : dependencies.getPaths()) {
+                weight += DEPENDENCY_OVERHEAD + 2L * path.length();
+            }
+            for (String tag : dependencies.getTags()) {
+                weight += DEPENDENCY_OVERHEAD + 2L * tag.length();
+            }
+        }
+        return (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Off-heap bodies occupy whole pages, which is what has to fit the arena.
+     */
+    private long bodyWeight(CacheEntry entry) {
+        OffHeapSlabStore store = offHeapStore;
+        if (!entry.isOffHeap() || store == null) {
+            return entry.getLength();
+        }
+        long pages = Math.max(1, (entry.getLength() + store.getPageSize() - 1) / store.getPageSize());
+        return pages * store.getPageSize();
+    }
+
+    private static int length(String value) {
+        return value != null ? value.length() : 0;
+    }
+
+    private void removeKeys(Set<String> keys) {
+        if (keys == null) {
+            return;
+        }
+        // Copy first, removal listeners unindex the keys while we iterate
+        for (String key : keys.toArray(new String[0])) {
+            if (cache.asMap().remove(key) != null) {
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Remove entries whose rendering covers the whole subtree of the path or of an ancestor.
+     */
+    private void removeSubtreeDependents(String path) {
+        if (subtreeIndex.isEmpty()) {
+            return;
+        }
+        String current = path;
+        while (!current.isEmpty()) {
+            removeKeys(subtreeIndex.get(current));
+            int slash = current.lastIndexOf('/');
+            current = slash > 0 ? current.substring(0, slash) : "";
+        }
+    }
+
+    /**
+     * Index entries strictly below a path: everything between "path/" and "path0".
+     */
+    private NavigableMap<String, Set<String>> descendants(String path) {
+        String base = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+        return pathIndex.subMap(base + "/", true, base + (char) ('/' + 1), false);
+    }
 
-        var iterator = cache.entrySet().iterator();
-        while (iterator.hasNext()) {
-            var entry = iterator.next();
-            if (entry.getValue().getExpirationTime() <= now) {
-                iterator.remove();
-                removed++;
+    private static Pattern globToPattern(String glob) {
+        StringBuilder regex = new StringBuilder();
+        int start = 0;
+        int wildcard;
+        while ((wildcard = glob.indexOf('*', start)) >= 0) {
+            if (wildcard > start) {
+                regex.append(Pattern.quote(glob.substring(start, wildcard)));
             }
+            regex.append(".*");
+            start = wildcard + 1;
+        }
+        if (start < glob.length()) {
+            regex.append(Pattern.quote(glob.substring(start)));
         }
+        return Pattern.compile(regex.toString());
+    }
 
-        if (removed > 0) {
-            evictions.addAndGet(removed);
-            LOG.debug("Cleanup removed {} expired entries", removed);
+    private void index(String key, CacheItem item) {
+        CacheDependencies dependencies = item.getEntry().getDependencies();
+        synchronized (indexLock) {
+            addToIndex(pathIndex, item.getPath(), key);
+            if (dependencies == null) {
+                return;
+            }
+            for (String path : dependencies.getPaths()) {
+                addToIndex(pathIndex, path, key);
+            }
+            if (dependencies.isSubtree()) {
+                addToIndex(subtreeIndex, item.getPath(), key);
+            }
+            for (String tag : dependencies.getTags()) {
+                addToIndex(tagIndex, tag, key);
+            }
+        }
+    }
+
+    private void unindex(String key, CacheItem item) {
+        CacheDependencies dependencies = item.getEntry().getDependencies();
+        synchronized (indexLock) {
+            // The key may have been cached again since it was removed, usually
+            // by replacing this item; only drop what the new item is not indexed under
+            CacheItem current = cache.asMap().get(key);
+            CacheDependencies currentDependencies = current != null ? current.getEntry().getDependencies() : null;
+            if (current == null) {
+                removeFromIndex(pathIndex, item.getPath(), key);
+            }
+            if (dependencies == null) {
+                return;
+            }
+            for (String path : dependencies.getPaths()) {
+                if (!isIndexedUnder(current, currentDependencies, path)) {
+                    removeFromIndex(pathIndex, path, key);
+                }
+            }
+            if (dependencies.isSubtree() && (currentDependencies == null || !currentDependencies.isSubtree())) {
+                removeFromIndex(subtreeIndex, item.getPath(), key);
+            }
+            for (String tag : dependencies.getTags()) {
+                if (currentDependencies == null || !currentDependencies.getTags().contains(tag)) {
+                    removeFromIndex(tagIndex, tag, key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether a cached item is listed under a path in the path index.
+     */
+    private static boolean isIndexedUnder(CacheItem item, CacheDependencies dependencies, String path) {
+        return item != null && (item.getPath().equals(path)
+                || dependencies != null && dependencies.getPaths().contains(path));
+    }
+
+    private static void addToIndex(Map<String, Set<String>> index, String name, String key) {
+        index.computeIfAbsent(name, n -> ConcurrentHashMap.newKeySet()).add(key);
+    }
+
+    private static void removeFromIndex(Map<String, Set<String>> index, String name, String key) {
+        Set<String> keys = index.get(name);
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                index.remove(name);
+            }
         }
     }
 
     /**
-     * Cache entry containing the cached data.
+     * Add a gzip variant to a compressible body, unless it has one or is too small.
+     * Variants that do not shrink the body are not kept.
+     */
+    private CacheEntry withGzipVariant(CacheEntry entry) {
+        if (!config.gzipEnabled() || entry.getGzipData() != null || entry.getLength() < config.gzipMinSize()
+                || !ContentEncoding.isCompressible(entry.getContentType())) {
+            return entry;
+        }
+        byte[] data = entry.getData();
+        if (data == null) {
+            return entry;
+        }
+        byte[] gzip = ContentEncoding.gzip(data);
+        return gzip.length < data.length ? entry.withGzip(gzip) : entry;
+    }
+
+    private CacheEntry toOffHeap(CacheEntry entry) {
+        byte[] data = entry.getData();
+        OffHeapSlabStore.Body body = offHeapStore.store(data);
+        if (body == null) {
+            // Run pending evictions first
+            cache.cleanUp();
+            body = offHeapStore.store(data);
+        }
+        // Pages can still be short while evicted bodies are being written out,
+        // so evict the coldest entries until this one fits
+        for (int i = 0; body == null && i < MAX_OFF_HEAP_EVICTIONS; i++) {
+            String coldest = cache.policy().eviction()
+                    .flatMap(eviction -> eviction.coldest(1).keySet().stream().findFirst())
+                    .orElse(null);
+            if (coldest == null) {
+                break;
+            }
+            cache.invalidate(coldest);
+            evictions.incrementAndGet();
+            body = offHeapStore.store(data);
+        }
+        return body != null
+                ? new CacheEntry(body, entry.getContentType(), entry.getETag(), entry.getLastModified(),
+                        entry.getCreatedTime(), entry.getDependencies(), entry.getGzipData(), entry.isUnvalidated())
+                : null;
+    }
+
+    private void onRemoval(String key, CacheItem item, RemovalCause cause) {
+        if (item != null) {
+            unindex(key, item);
+            item.getEntry().release();
+        }
+        // Explicit invalidations are counted by the caller
+        if (cause.wasEvicted()) {
+            evictions.incrementAndGet();
+        }
+    }
+
+    private long softExpiry(CacheEntry entry) {
+        return entry.getCreatedTime() + config.ttlSeconds() * 1000L;
+    }
+
+    private void cleanup() {
+        // Expired entries are dropped lazily by Caffeine; this bounds how long they linger
+        cache.cleanUp();
+    }
+
+    /**
+     * Cache entry containing the cached data and its validators.
+     * The body is either a heap array or pages of the off-heap store.
      */
     public static class CacheEntry {
         private final byte[] data;
+        private final OffHeapSlabStore.Body body;
         private final String contentType;
+        private final String etag;
+        private final long lastModified;
+        private final long createdTime;
+        private final CacheDependencies dependencies;
+        private final byte[] gzipData;
+        private final boolean unvalidated;
 
         public CacheEntry(byte[] data, String contentType) {
+            this(data, contentType, null, -1);
+        }
+
+        public CacheEntry(byte[] data, String contentType, String etag, long lastModified) {
+            this(data, contentType, etag, lastModified, System.currentTimeMillis());
+        }
+
+        public CacheEntry(byte[] data, String contentType, String etag, long lastModified, long createdTime) {
+            this(data, null, contentType, etag, lastModified, createdTime, null, null, false);
+        }
+
+        public CacheEntry(byte[] data, String contentType, String etag, long lastModified,
+                          CacheDependencies dependencies) {
+            this(data, null, contentType, etag, lastModified, System.currentTimeMillis(), dependencies, null, false);
+        }
+
+        public CacheEntry(byte[] data, String contentType, String etag, long lastModified, long createdTime,
+                          CacheDependencies dependencies) {
+            this(data, null, contentType, etag, lastModified, createdTime, dependencies, null, false);
+        }
+
+        CacheEntry(OffHeapSlabStore.Body body, String contentType, String etag, long lastModified, long createdTime,
+                   CacheDependencies dependencies, byte[] gzipData, boolean unvalidated) {
+            this(null, body, contentType, etag, lastModified, createdTime, dependencies, gzipData, unvalidated);
+        }
+
+        private CacheEntry(byte[] data, OffHeapSlabStore.Body body, String contentType, String etag,
+                           long lastModified, long createdTime, CacheDependencies dependencies, byte[] gzipData,
+                           boolean unvalidated) {
             this.data = data;
+            this.body = body;
             this.contentType = contentType;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.createdTime = createdTime;
+            this.dependencies = dependencies;
+            this.gzipData = gzipData;
+            this.unvalidated = unvalidated;
         }
 
+        /**
+         * Copy of this entry carrying a precompressed gzip variant of the body.
+         */
+        public CacheEntry withGzip(byte[] gzipData) {
+            return new CacheEntry(data, body, contentType, etag, lastModified, createdTime, dependencies, gzipData,
+                    unvalidated);
+        }
+
+        /**
+         * Copy of this entry restored at the given time, not yet checked against the repository.
+         */
+        CacheEntry asUnvalidated(long restoredTime) {
+            return new CacheEntry(data, body, contentType, etag, lastModified, restoredTime, dependencies, gzipData,
+                    true);
+        }
+
+        /**
+         * Body bytes. Off-heap bodies are copied to the heap, and null is
+         * returned if the entry has been evicted in the meantime.
+         */
         public byte[] getData() {
-            return data;
+            if (body == null) {
+                return data;
+            }
+            if (!body.retain()) {
+                return null;
+            }
+            try {
+                return body.toByteArray();
+            } finally {
+                body.release();
+            }
+        }
+
+        public int getLength() {
+            return body != null ? body.getLength() : data.length;
+        }
+
+        public boolean isOffHeap() {
+            return body != null;
+        }
+
+        /**
+         * Pin the body while it is written. Always succeeds for heap entries.
+         *
+         * @return false if an off-heap body has already been released
+         */
+        public boolean retain() {
+            return body == null || body.retain();
+        }
+
+        public void release() {
+            if (body != null) {
+                body.release();
+            }
+        }
+
+        /**
+         * Write the body to a stream, straight from off-heap pages when applicable.
+         * Off-heap entries must be pinned with {@link #retain()} first.
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            if (body != null) {
+                body.writeTo(out);
+            } else {
+                out.write(data);
+            }
         }
 
         public String getContentType() {
             return contentType;
         }
+
+        /**
+         * Strong validator of the body without quotes, or null if unknown.
+         */
+        public String getETag() {
+            return etag;
+        }
+
+        /**
+         * Last modification time in milliseconds, or -1 if unknown.
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * When the body was rendered, in milliseconds.
+         */
+        public long getCreatedTime() {
+            return createdTime;
+        }
+
+        /**
+         * Content the body was rendered from, or null if only its own path is known.
+         */
+        public CacheDependencies getDependencies() {
+            return dependencies;
+        }
+
+        /**
+         * Gzip variant of the body, or null if there is none. Kept on the heap
+         * for off-heap entries too, as it is a fraction of the body's size.
+         */
+        public byte[] getGzipData() {
+            return gzipData;
+        }
+
+        /**
+         * Whether the entry was restored from a snapshot and has not been
+         * validated against the repository since.
+         */
+        public boolean isUnvalidated() {
+            return unvalidated;
+        }
+    }
+
+    /**
+     * A render in progress for one cache key, shared by concurrent misses.
+     */
+    public final class Flight {
+        private final String key;
+        private final CompletableFuture<CacheEntry> future;
+        private final boolean leader;
+
+        private Flight(String key, CompletableFuture<CacheEntry> future, boolean leader) {
+            this.key = key;
+            this.future = future;
+            this.leader = leader;
+        }
+
+        /**
+         * Whether this caller is responsible for rendering.
+         */
+        public boolean isLeader() {
+            return leader;
+        }
+
+        /**
+         * Wait for the leader's result.
+         *
+         * @return the rendered entry, or null if the leader produced nothing
+         *         cacheable or did not finish in time
+         */
+        public CacheEntry await() {
+            try {
+                CacheEntry entry = future.get(config.coalesceTimeoutMs(), TimeUnit.MILLISECONDS);
+                if (entry != null) {
+                    coalesced.incrementAndGet();
+                }
+                return entry;
+            } catch (TimeoutException e) {
+                coalesceTimeouts.incrementAndGet();
+                LOG.debug("Timed out waiting for in-flight render of {}", key);
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Publish the leader's result to waiting followers and end the flight.
+         * Only the first call has an effect.
+         *
+         * @param entry the cached entry, or null if nothing cacheable was rendered
+         */
+        public void complete(CacheEntry entry) {
+            if (!leader) {
+                return;
+            }
+            inFlight.remove(key, this);
+            future.complete(entry);
+        }
+    }
+
+    /**
+     * Expires each item at its own hard expiry, independent of reads.
+     */
+    private static class HardExpiry implements Expiry<String, CacheItem> {
+        @Override
+        public long expireAfterCreate(String key, CacheItem item, long currentTime) {
+            return remainingNanos(item);
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, CacheItem item, long currentTime, long currentDuration) {
+            return remainingNanos(item);
+        }
+
+        @Override
+        public long expireAfterRead(String key, CacheItem item, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+
+        private long remainingNanos(CacheItem item) {
+            long remaining = item.getHardExpiry() - System.currentTimeMillis();
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(0, remaining));
+        }
     }
 
     /**
      * Internal cache item with metadata.
      */
     private static class CacheItem {
+        private final String path;
         private final CacheEntry entry;
-        private final long expirationTime;
-        private volatile long lastAccessTime;
+        private final long softExpiry;
+        private final long hardExpiry;
 
-        public CacheItem(CacheEntry entry, long expirationTime) {
+        public CacheItem(String path, CacheEntry entry, long softExpiry, long hardExpiry) {
+            this.path = path;
             this.entry = entry;
-            this.expirationTime = expirationTime;
-            this.lastAccessTime = System.currentTimeMillis();
+            this.softExpiry = softExpiry;
+            this.hardExpiry = hardExpiry;
         }
 
-        public CacheEntry getEntry() {
-            return entry;
+        public String getPath() {
+            return path;
         }
 
-        public long getExpirationTime() {
-            return expirationTime;
+        public CacheEntry getEntry() {
+            return entry;
         }
 
-        public long getLastAccessTime() {
-            return lastAccessTime;
+        /**
+         * End of freshness; the entry is stale afterwards.
+         */
+        public long getSoftExpiry() {
+            return softExpiry;
         }
 
-        public void recordAccess() {
-            this.lastAccessTime = System.currentTimeMillis();
+        /**
+         * End of retention; the entry is no longer served even on errors.
+         */
+        public long getHardExpiry() {
+            return hardExpiry;
         }
 
-        public boolean isExpired() {
-            return System.currentTimeMillis() >= expirationTime;
-        }
     }
 
     /**
@@ -315,30 +1295,47 @@ public class CacheService {
      */
     public static class CacheStats {
         private final int entries;
-        private final int maxEntries;
+        private final long maxSize;
         private final long totalSize;
         private final long hits;
         private final long misses;
         private final long evictions;
         private final double hitRate;
+        private final long coalesced;
+        private final long coalesceTimeouts;
+        private final long staleHits;
+        private final long staleIfError;
+        private final long l2Hits;
 
-        public CacheStats(int entries, int maxEntries, long totalSize,
-                         long hits, long misses, long evictions, double hitRate) {
+        public CacheStats(int entries, long maxSize, long totalSize,
+                         long hits, long misses, long evictions, double hitRate,
+                         long coalesced, long coalesceTimeouts, long staleHits, long staleIfError,
+                         long l2Hits) {
             this.entries = entries;
-            this.maxEntries = maxEntries;
+            this.maxSize = maxSize;
             this.totalSize = totalSize;
             this.hits = hits;
             this.misses = misses;
             this.evictions = evictions;
             this.hitRate = hitRate;
+            this.coalesced = coalesced;
+            this.coalesceTimeouts = coalesceTimeouts;
+            this.staleHits = staleHits;
+            this.staleIfError = staleIfError;
+            this.l2Hits = l2Hits;
         }
 
         public int getEntries() { return entries; }
-        public int getMaxEntries() { return maxEntries; }
+        public long getMaxSize() { return maxSize; }
         public long getTotalSize() { return totalSize; }
         public long getHits() { return hits; }
         public long getMisses() { return misses; }
         public long getEvictions() { return evictions; }
         public double getHitRate() { return hitRate; }
+        public long getCoalesced() { return coalesced; }
+        public long getCoalesceTimeouts() { return coalesceTimeouts; }
+        public long getStaleHits() { return staleHits; }
+        public long getStaleIfError() { return staleIfError; }
+        public long getL2Hits() { return l2Hits; }
     }
 }
@@ -0,0 +1,228 @@
+package com.aem.oak.publish.content;
+
+import com.aem.oak.core.blobstore.S3BlobStoreFactory;
+import org.osgi.service.component.annotations.*;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically saves the hottest {@link CacheService} entries and loads them
+ * on startup, so that a newly scaled-up publish pod does not start with an
+ * empty cache. The snapshot is written to a local file and, optionally,
+ * shared through MinIO so that fresh pods with an empty disk can load it.
+ *
+ * <p>The pod reports not ready until the load has finished or failed; see
+ * {@link #isWarm()}. Restored entries are validated on first use, before they
+ * are served. The newer of the local and the shared snapshot is loaded.</p>
+ */
+@Component(service = CacheSnapshotService.class, immediate = true)
+@Designate(ocd = CacheSnapshotService.Config.class)
+public class CacheSnapshotService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CacheSnapshotService.class);
+    private static final String SNAPSHOT_FILE = "cache-snapshot.bin";
+
+    @ObjectClassDefinition(name = "AEM Oak Cache Snapshot Configuration")
+    public @interface Config {
+        @AttributeDefinition(name = "Enabled", description = "Save hot cache entries and load them on startup")
+        boolean enabled() default false;
+
+        @AttributeDefinition(name = "Directory", description = "Local directory holding the snapshot")
+        String directory() default "/tmp/aem-cache-snapshot";
+
+        @AttributeDefinition(name = "Share via MinIO", description = "Also store the snapshot in the blob bucket for new pods")
+        boolean shared() default true;
+
+        @AttributeDefinition(name = "Object Key", description = "Key of the shared snapshot in the blob bucket")
+        String objectKey() default "cache-snapshots/publish.bin";
+
+        @AttributeDefinition(name = "Max Entries", description = "Number of hottest entries saved")
+        int maxEntries() default 2000;
+
+        @AttributeDefinition(name = "Interval (seconds)", description = "How often the snapshot is saved")
+        int intervalSeconds() default 300;
+    }
+
+    @Reference
+    private CacheService cacheService;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL)
+    private S3BlobStoreFactory blobStoreFactory;
+
+    private Config config;
+    private Path file;
+    private ScheduledExecutorService scheduler;
+    private volatile boolean warm;
+
+    @Activate
+    protected void activate(Config config) {
+        this.config = config;
+        this.file = Paths.get(config.directory(), SNAPSHOT_FILE).toAbsolutePath().normalize();
+        if (!config.enabled()) {
+            warm = true;
+            LOG.info("Cache snapshot is disabled");
+            return;
+        }
+
+        warm = false;
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.execute(this::load);
+        scheduler.scheduleWithFixedDelay(this::save, config.intervalSeconds(), config.intervalSeconds(),
+                TimeUnit.SECONDS);
+        LOG.info("Cache snapshot activated, file={}, shared={}, maxEntries={}",
+                file, isShared(), config.maxEntries());
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
+                    scheduler.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                scheduler.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            scheduler = null;
+            // A last save on scale-down leaves the freshest snapshot behind
+            save();
+        }
+    }
+
+    @Modified
+    protected void modified(Config config) {
+        deactivate();
+        activate(config);
+    }
+
+    /**
+     * Whether the startup load has finished, successfully or not.
+     */
+    public boolean isWarm() {
+        return warm;
+    }
+
+    private void load() {
+        long start = System.currentTimeMillis();
+        try (InputStream in = openSnapshot()) {
+            if (in == null) {
+                LOG.info("No cache snapshot to load");
+                return;
+            }
+            int loaded = cacheService.loadSnapshot(in);
+            LOG.info("Loaded {} cache entries from snapshot in {} ms", loaded, System.currentTimeMillis() - start);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Failed to load cache snapshot, starting cold", e);
+        } finally {
+            warm = true;
+        }
+    }
+
+    /**
+     * The newer of the local file and the shared copy, or null if there is neither.
+     * A pod that was down for a while would otherwise keep reloading its own old file.
+     */
+    private InputStream openSnapshot() throws IOException {
+        long local = Files.isRegularFile(file) ? Files.getLastModifiedTime(file).toMillis() : -1;
+        long shared = sharedLastModified();
+        if (local < 0 && shared < 0) {
+            return null;
+        }
+        if (local >= shared) {
+            return new BufferedInputStream(Files.newInputStream(file));
+        }
+        try {
+            return new BufferedInputStream(blobStoreFactory.getS3Client().getObject(GetObjectRequest.builder()
+                    .bucket(bucket())
+                    .key(config.objectKey())
+                    .build()));
+        } catch (NoSuchKeyException e) {
+            return local >= 0 ? new BufferedInputStream(Files.newInputStream(file)) : null;
+        }
+    }
+
+    /**
+     * Last modification time of the shared snapshot, or -1 if there is none or it cannot be read.
+     */
+    private long sharedLastModified() {
+        if (!isShared()) {
+            return -1;
+        }
+        try {
+            return blobStoreFactory.getS3Client().headObject(HeadObjectRequest.builder()
+                    .bucket(bucket())
+                    .key(config.objectKey())
+                    .build())
+                    .lastModified()
+                    .toEpochMilli();
+        } catch (NoSuchKeyException e) {
+            return -1;
+        } catch (RuntimeException e) {
+            LOG.warn("Could not read shared cache snapshot metadata: {}", e.getMessage());
+            return -1;
+        }
+    }
+
+    private void save() {
+        Path temp = null;
+        try {
+            Files.createDirectories(file.getParent());
+            temp = Files.createTempFile(file.getParent(), ".snapshot", ".tmp");
+            int written;
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                written = cacheService.writeSnapshot(out, config.maxEntries());
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            temp = null;
+
+            if (isShared() && written > 0) {
+                S3Client s3 = blobStoreFactory.getS3Client();
+                s3.putObject(PutObjectRequest.builder()
+                        .bucket(bucket())
+                        .key(config.objectKey())
+                        .contentType("application/octet-stream")
+                        .build(), RequestBody.fromFile(file));
+            }
+            LOG.debug("Saved {} cache entries to snapshot", written);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Failed to save cache snapshot", e);
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    LOG.debug("Could not delete {}", temp, e);
+                }
+            }
+        }
+    }
+
+    private boolean isShared() {
+        return config.shared() && blobStoreFactory != null && blobStoreFactory.getS3Client() != null;
+    }
+
+    private String bucket() {
+        return blobStoreFactory.getS3Properties().getProperty("s3Bucket");
+    }
+}
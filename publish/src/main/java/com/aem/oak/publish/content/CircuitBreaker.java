@@ -0,0 +1,60 @@
+package com.aem.oak.publish.content;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Consecutive-failure circuit breaker for a remote dependency.
+ * After {@code failureThreshold} failures in a row the circuit opens and
+ * requests are refused for {@code openMillis}. Once that has passed, requests
+ * are let through again; the first failure re-opens the circuit straight away
+ * and the first success closes it.
+ */
+final class CircuitBreaker {
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private final AtomicInteger failures = new AtomicInteger();
+    // 0 while closed, otherwise when the circuit may be tried again
+    private volatile long openUntil;
+
+    CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+    }
+
+    boolean allowRequest() {
+        long until = openUntil;
+        return until == 0 || System.currentTimeMillis() >= until;
+    }
+
+    /**
+     * @return true if this success closed an open circuit
+     */
+    boolean recordSuccess() {
+        failures.set(0);
+        if (openUntil != 0) {
+            openUntil = 0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if this failure opened the circuit
+     */
+    boolean recordFailure() {
+        long now = System.currentTimeMillis();
+        long until = openUntil;
+        boolean trialFailed = until != 0 && now >= until;
+        if (trialFailed || (until == 0 && failures.incrementAndGet() >= failureThreshold)) {
+            failures.set(0);
+            openUntil = now + openMillis;
+            return true;
+        }
+        return false;
+    }
+
+    boolean isOpen() {
+        return !allowRequest();
+    }
+}
@@ -0,0 +1,243 @@
+package com.aem.oak.publish.content;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.io.output.TeeOutputStream;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
+import org.osgi.service.component.annotations.*;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.*;
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Batch content delivery for the Publish tier.
+ * Returns the JSON of several resources in one response, e.g.
+ * {@code /api/batch.1.json?path=/content/a&path=/content/b}, reading cached
+ * entries with one multi-get and writing rendered misses back in one batch.
+ *
+ * <p>Entries share cache keys with {@link ContentDeliveryServlet}, so a batch
+ * warms the cache for single-resource requests and vice versa. Batches are
+ * cached under the extensionless key and also reuse {@code .json} entries.
+ * Resources too large to cache are still rendered into the response.</p>
+ */
+@Component(
+    service = Servlet.class,
+    property = {
+        "sling.servlet.paths=/api/batch",
+        "sling.servlet.methods=GET"
+    }
+)
+@Designate(ocd = ContentBatchServlet.Config.class)
+public class ContentBatchServlet extends SlingSafeMethodsServlet {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContentBatchServlet.class);
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    // Rendered entries are what an extensionless request returns, which is always JSON
+    private static final String EXTENSION = null;
+    // Also read, but not written: .json requests of a binary stream it instead
+    private static final String JSON_EXTENSION = "json";
+    private static final byte[] JSON_NULL = "null".getBytes(StandardCharsets.US_ASCII);
+
+    @ObjectClassDefinition(name = "AEM Oak Content Batch Servlet Configuration")
+    public @interface Config {
+        @AttributeDefinition(name = "Max Paths", description = "Maximum number of paths per batch request")
+        int maxPaths() default 50;
+
+        @AttributeDefinition(name = "Cache Max Age", description = "Cache-Control max-age in seconds")
+        int cacheMaxAge() default 300;
+    }
+
+    @Reference
+    private Repository repository;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL)
+    private CacheService cacheService;
+
+    @Reference
+    private ContentRendererService rendererService;
+
+    private Config config;
+    private JsonContentRenderer renderer;
+
+    @Activate
+    @Modified
+    protected void activate(Config config) {
+        this.config = config;
+        this.renderer = rendererService.getRenderer();
+        LOG.info("Content batch servlet activated, maxPaths={}", config.maxPaths());
+    }
+
+    @Override
+    protected void doGet(SlingHttpServletRequest request, SlingHttpServletResponse response)
+            throws ServletException, IOException {
+
+        String[] requested = request.getParameterValues("path");
+        if (requested == null || requested.length == 0) {
+            sendError(response, 400, "At least one path parameter is required");
+            return;
+        }
+        if (requested.length > config.maxPaths()) {
+            sendError(response, 400, "Too many paths, maximum is " + config.maxPaths());
+            return;
+        }
+
+        Set<String> paths = new LinkedHashSet<>();
+        for (String path : requested) {
+            if (path != null && path.startsWith("/content")) {
+                paths.add(path);
+            }
+        }
+        String selector = request.getRequestPathInfo().getSelectorString();
+
+        // One multi-get for everything cached, one render pass and batch write for the rest.
+        // Cached entries are pinned until written, so none is evicted from under the response.
+        Map<String, CacheService.CacheEntry> entries = new HashMap<>();
+        try {
+            if (cacheService != null) {
+                putRetained(entries, cacheService.getAll(paths, selector, EXTENSION));
+                if (entries.size() < paths.size()) {
+                    List<String> uncached = new ArrayList<>();
+                    for (String path : paths) {
+                        if (!entries.containsKey(path)) {
+                            uncached.add(path);
+                        }
+                    }
+                    putRetained(entries, cacheService.getAll(uncached, selector, JSON_EXTENSION));
+                }
+            }
+
+            List<String> missing = new ArrayList<>();
+            for (String path : paths) {
+                if (!entries.containsKey(path)) {
+                    missing.add(path);
+                }
+            }
+
+            Session session = null;
+            try {
+                if (!missing.isEmpty()) {
+                    session = repository.login(new SimpleCredentials("anonymous", "".toCharArray()));
+                }
+
+                response.setContentType("application/json;charset=UTF-8");
+                response.setHeader("Cache-Control", "public, max-age=" + config.cacheMaxAge());
+                response.setHeader("X-Cache-Batch", (paths.size() - missing.size()) + "/" + paths.size());
+                Map<String, CacheService.CacheEntry> rendered = new LinkedHashMap<>();
+                writeBatch(response.getOutputStream(), paths, entries, session, selector, rendered);
+
+                if (cacheService != null && !rendered.isEmpty()) {
+                    cacheService.putAll(rendered, selector, EXTENSION);
+                }
+
+            } catch (RepositoryException e) {
+                LOG.error("Error rendering batch of {} paths", missing.size(), e);
+                if (response.isCommitted()) {
+                    throw new ServletException(e);
+                }
+                response.resetBuffer();
+                sendError(response, 500, "Repository error: " + e.getMessage());
+            } finally {
+                if (session != null) {
+                    session.logout();
+                }
+            }
+        } finally {
+            for (CacheService.CacheEntry entry : entries.values()) {
+                entry.release();
+            }
+        }
+    }
+
+    /**
+     * Add the entries that could be pinned; those evicted since the lookup are rendered again.
+     */
+    private static void putRetained(Map<String, CacheService.CacheEntry> entries,
+                                    Map<String, CacheService.CacheEntry> found) {
+        for (Map.Entry<String, CacheService.CacheEntry> entry : found.entrySet()) {
+            if (entry.getValue().retain()) {
+                entries.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Write {@code {"path": <json>, ...}}, splicing the pinned cached bodies in
+     * as raw JSON. Missing resources are rendered straight into the response,
+     * teeing into a buffer capped at the cache's entry limit; those that fit
+     * are added to {@code rendered}. Paths without content are written as null.
+     */
+    private void writeBatch(OutputStream out, Collection<String> paths, Map<String, CacheService.CacheEntry> entries,
+                            Session session, String selector, Map<String, CacheService.CacheEntry> rendered)
+            throws IOException, RepositoryException {
+        JsonStringEncoder encoder = JsonStringEncoder.getInstance();
+
+        out.write('{');
+        boolean first = true;
+        for (String path : paths) {
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+
+            out.write('"');
+            out.write(encoder.quoteAsUTF8(path));
+            out.write('"');
+            out.write(':');
+
+            CacheService.CacheEntry entry = entries.get(path);
+            if (entry != null) {
+                entry.writeTo(out);
+            } else if (session != null && session.nodeExists(path) && !isBinaryNode(session.getNode(path))) {
+                render(session.getNode(path), path, selector, out, rendered);
+            } else {
+                out.write(JSON_NULL);
+            }
+        }
+        out.write('}');
+        out.flush();
+    }
+
+    private void render(Node node, String path, String selector, OutputStream out,
+                        Map<String, CacheService.CacheEntry> rendered) throws RepositoryException, IOException {
+        // Validators first, so they are never newer than the body
+        JsonContentRenderer.Validators validators = renderer.validators(node, selector);
+        ResponseBuffer buffer = ResponseBuffer.acquire(cacheService != null ? cacheService.getMaxEntrySize() : 0);
+        CacheDependencies dependencies = new CacheDependencies();
+        try {
+            renderer.render(node, renderer.depthFor(selector), new TeeOutputStream(out, buffer), dependencies);
+            if (!buffer.isOverflowed()) {
+                rendered.put(path, new CacheService.CacheEntry(buffer.toByteArray(), "application/json",
+                        validators.getETag(), validators.getLastModified(), dependencies));
+            }
+        } finally {
+            buffer.release();
+        }
+    }
+
+    private boolean isBinaryNode(Node node) throws RepositoryException {
+        return (node.hasNode("jcr:content") && node.getNode("jcr:content").hasProperty("jcr:data"))
+                || node.hasNode("jcr:content/renditions/original");
+    }
+
+    private void sendError(SlingHttpServletResponse response, int status, String message) throws IOException {
+        Map<String, Object> error = new HashMap<>();
+        error.put("error", message);
+        error.put("status", status);
+
+        response.setContentType("application/json");
+        response.setStatus(status);
+        OBJECT_MAPPER.writeValue(response.getOutputStream(), error);
+    }
+}
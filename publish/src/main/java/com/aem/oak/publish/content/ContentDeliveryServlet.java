@@ -1,6 +1,10 @@
 package com.aem.oak.publish.content;
 
+import com.aem.oak.core.blobstore.S3BlobStoreFactory;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.jackrabbit.api.ReferenceBinary;
+import org.apache.jackrabbit.oak.spi.blob.BlobStore;
+import org.apache.commons.io.output.TeeOutputStream;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
 import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
@@ -14,10 +18,22 @@ import org.slf4j.LoggerFactory;
 import javax.jcr.*;
 import javax.servlet.Servlet;
 import javax.servlet.ServletException;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Content delivery servlet for Publish tier.
@@ -36,6 +52,7 @@ public class ContentDeliveryServlet extends SlingSafeMethodsServlet {
 
     private static final Logger LOG = LoggerFactory.getLogger(ContentDeliveryServlet.class);
     private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final int MAX_PRESIGNED_URLS = 10000;
 
     @ObjectClassDefinition(name = "AEM Oak Content Delivery Configuration")
     public @interface Config {
@@ -45,11 +62,26 @@ public class ContentDeliveryServlet extends SlingSafeMethodsServlet {
         @AttributeDefinition(name = "Enable ETag", description = "Enable ETag-based caching")
         boolean enableETag() default true;
 
-        @AttributeDefinition(name = "Max Depth", description = "Maximum depth for JSON serialization")
-        int maxDepth() default 5;
-
         @AttributeDefinition(name = "Stream Buffer Size", description = "Buffer size for binary streaming")
         int streamBufferSize() default 8192;
+
+        @AttributeDefinition(name = "Max Ranges", description = "Maximum byte ranges honored in one request")
+        int maxRanges() default 16;
+
+        @AttributeDefinition(name = "Direct Binary Access", description = "Redirect large binaries to presigned MinIO URLs")
+        boolean directBinaryAccess() default false;
+
+        @AttributeDefinition(name = "Direct Binary Min Size (bytes)", description = "Smallest binary that is redirected")
+        long directBinaryMinSize() default 1048576;
+
+        @AttributeDefinition(name = "Direct Binary Expiry (seconds)", description = "Minimum remaining validity of a presigned URL")
+        int directBinaryExpirySeconds() default 3600;
+
+        @AttributeDefinition(name = "Direct Binary Bucket (seconds)", description = "Window in which the same presigned URL is reused")
+        int directBinaryBucketSeconds() default 600;
+
+        @AttributeDefinition(name = "Refresh Threads", description = "Threads re-rendering stale cache entries in the background")
+        int refreshThreads() default 2;
     }
 
     @Reference
@@ -58,15 +90,52 @@ public class ContentDeliveryServlet extends SlingSafeMethodsServlet {
     @Reference(cardinality = ReferenceCardinality.OPTIONAL)
     private CacheService cacheService;
 
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL)
+    private SnapshotStore snapshotStore;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL)
+    private S3BlobStoreFactory blobStoreFactory;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL)
+    private PathExistenceService pathExistence;
+
+    @Reference
+    private ContentRendererService rendererService;
+
     private Config config;
+    private JsonContentRenderer renderer;
+    private ExecutorService refreshExecutor;
+
+    private final Map<String, URL> presignedUrls = new ConcurrentHashMap<>();
+    private volatile long presignedBucket;
 
     @Activate
     @Modified
     protected void activate(Config config) {
         this.config = config;
+        this.renderer = rendererService.getRenderer();
+        if (refreshExecutor == null) {
+            refreshExecutor = Executors.newFixedThreadPool(config.refreshThreads());
+        }
         LOG.info("Content delivery servlet activated, cacheMaxAge={}", config.cacheMaxAge());
     }
 
+    @Deactivate
+    protected void deactivate() {
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdown();
+            try {
+                if (!refreshExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                    refreshExecutor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                refreshExecutor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            refreshExecutor = null;
+        }
+    }
+
     @Override
     protected void doGet(SlingHttpServletRequest request, SlingHttpServletResponse response)
             throws ServletException, IOException {
@@ -80,52 +149,163 @@ public class ContentDeliveryServlet extends SlingSafeMethodsServlet {
         // Check cache first
         if (cacheService != null) {
             CacheService.CacheEntry cached = cacheService.get(path, selector, extension);
+            if (cached != null && cached.isUnvalidated()) {
+                // Restored from a snapshot, which may predate any change: check before serving
+                cached = revalidate(path, selector, extension, cached);
+            }
             if (cached != null) {
-                sendCachedResponse(response, cached);
+                // Stale entries are served immediately while a background render replaces them
+                boolean stale = cacheService.needsRevalidation(cached);
+                if (sendFromCache(request, response, cached, stale ? "STALE" : "HIT")) {
+                    if (stale) {
+                        refreshInBackground(path, selector, extension, cached);
+                    }
+                    return;
+                }
+            }
+        }
+
+        // Turn away paths known to be missing without a repository login
+        if (pathExistence != null && pathExistence.isKnownMissing(path)) {
+            response.setHeader("X-Cache", "NEGATIVE");
+            sendNotFound(response, path);
+            return;
+        }
+
+        // Serve a pre-rendered snapshot without touching the repository
+        if (snapshotStore != null && isJsonRequest(extension)) {
+            SnapshotStore.Snapshot snapshot = snapshotStore.open(path, selector, acceptsGzip(request));
+            if (snapshot != null) {
+                try {
+                    String etag = snapshotETag(snapshot);
+                    if (isNotModified(request, etag, snapshot.getLastModified())) {
+                        sendNotModified(response, etag, snapshot.getLastModified());
+                    } else {
+                        sendSnapshot(response, snapshot, etag);
+                    }
+                } finally {
+                    snapshot.close();
+                }
                 return;
             }
         }
 
+        // Collapse concurrent misses for the same key onto a single render
+        CacheService.Flight flight = cacheService != null
+                ? cacheService.startFlight(path, selector, extension)
+                : null;
+        if (flight != null && !flight.isLeader()) {
+            CacheService.CacheEntry coalesced = flight.await();
+            if (coalesced != null && sendFromCache(request, response, coalesced, "COALESCED")) {
+                return;
+            }
+            // Leader produced nothing cacheable or took too long, render ourselves
+            flight = null;
+        }
+
+        CacheService.CacheEntry rendered = null;
+        try {
+            rendered = renderFromRepository(request, response, path, selector, extension, flight);
+        } finally {
+            if (flight != null) {
+                flight.complete(rendered);
+            }
+        }
+    }
+
+    /**
+     * Serve a request from the repository. A leader {@code flight} is completed
+     * with nothing as soon as the response turns out not to be a cacheable JSON
+     * render, so followers do not wait on a 404, a 304 or a binary stream.
+     *
+     * @return the entry that was cached for the response, or null
+     */
+    private CacheService.CacheEntry renderFromRepository(SlingHttpServletRequest request,
+                                                         SlingHttpServletResponse response,
+                                                         String path, String selector, String extension,
+                                                         CacheService.Flight flight)
+            throws IOException {
+
         Session session = null;
         try {
             session = repository.login(new SimpleCredentials("anonymous", "".toCharArray()));
 
             if (!session.nodeExists(path)) {
+                release(flight);
+                if (pathExistence != null) {
+                    pathExistence.recordMissing(path);
+                }
                 sendNotFound(response, path);
-                return;
+                return null;
             }
 
             Node node = session.getNode(path);
 
             // Check for binary content
             if (isBinaryRequest(node, extension)) {
-                streamBinary(node, extension, response);
-                return;
+                release(flight);
+                streamBinary(node, request, response);
+                return null;
             }
 
-            // Return JSON representation
-            Map<String, Object> content = serializeNode(node, config.maxDepth());
+            // Validators come from repository metadata, so conditional requests skip serialization
+            JsonContentRenderer.Validators validators = renderer.validators(node, selector);
+            String etag = config.enableETag() ? validators.getETag() : null;
+            long lastModified = validators.getLastModified();
+            if (isNotModified(request, etag, lastModified)) {
+                release(flight);
+                sendNotModified(response, etag, lastModified);
+                return null;
+            }
 
             // Set cache headers
-            setCacheHeaders(response, node);
+            setCacheHeaders(response, etag, lastModified);
 
-            // Send response
             response.setContentType("application/json;charset=UTF-8");
             response.setStatus(200);
 
-            String json = OBJECT_MAPPER.writeValueAsString(content);
-
-            // Cache the response
-            if (cacheService != null) {
-                cacheService.put(path, selector, extension,
-                        new CacheService.CacheEntry(json.getBytes(), "application/json"));
+            // Stream JSON straight to the response, teeing into a pooled buffer for the cache
+            ResponseBuffer buffer = cacheService != null
+                    ? ResponseBuffer.acquire(cacheService.getMaxEntrySize())
+                    : null;
+            CacheDependencies dependencies = buffer != null ? new CacheDependencies() : null;
+            try {
+                OutputStream out = response.getOutputStream();
+                if (buffer != null) {
+                    out = new TeeOutputStream(out, buffer);
+                }
+                renderer.render(node, renderer.depthFor(selector), out, dependencies);
+                out.flush();
+
+                // Cache the response
+                if (buffer != null && !buffer.isOverflowed()) {
+                    CacheService.CacheEntry entry = new CacheService.CacheEntry(buffer.toByteArray(),
+                            "application/json", etag, lastModified, dependencies);
+                    cacheService.put(path, selector, extension, entry);
+                    return entry;
+                }
+                return null;
+            } finally {
+                if (buffer != null) {
+                    buffer.release();
+                }
             }
 
-            response.getWriter().write(json);
-
-        } catch (RepositoryException e) {
+        } catch (RepositoryException | RuntimeException e) {
             LOG.error("Error retrieving content at {}", path, e);
-            sendError(response, 500, "Repository error: " + e.getMessage());
+            if (!response.isCommitted()) {
+                response.resetBuffer();
+
+                // Serve stale content rather than an error while the repository is unhealthy
+                CacheService.CacheEntry stale = cacheService != null
+                        ? cacheService.getStale(path, selector, extension)
+                        : null;
+                response.setStatus(200);
+                if (stale == null || !sendFromCache(request, response, stale, "STALE")) {
+                    sendError(response, 500, "Repository error: " + e.getMessage());
+                }
+            }
+            return null;
         } finally {
             if (session != null) {
                 session.logout();
@@ -133,6 +313,123 @@ public class ContentDeliveryServlet extends SlingSafeMethodsServlet {
         }
     }
 
+    private static void release(CacheService.Flight flight) {
+        if (flight != null) {
+            flight.complete(null);
+        }
+    }
+
+    /**
+     * Check a restored entry against the repository, keeping its body only if
+     * a subtree-covering validator is unchanged. Concurrent requests for the
+     * key wait for the one check, or for a render already in flight.
+     *
+     * @return the validated or re-rendered entry, or null to serve the request as a miss
+     */
+    private CacheService.CacheEntry revalidate(String path, String selector, String extension,
+                                               CacheService.CacheEntry restored) {
+        CacheService.Flight flight = cacheService.startFlight(path, selector, extension);
+        if (flight != null && !flight.isLeader()) {
+            return flight.await();
+        }
+
+        CacheService.CacheEntry entry = null;
+        try {
+            entry = renderEntry(path, selector, extension, restored);
+            return entry;
+        } catch (RepositoryException | IOException | RuntimeException e) {
+            LOG.warn("Could not validate restored cache entry for {}", path, e);
+            return null;
+        } finally {
+            if (flight != null) {
+                flight.complete(entry);
+            }
+        }
+    }
+
+    /**
+     * Re-render a stale entry off the request thread. Only one refresh runs per key.
+     */
+    private void refreshInBackground(String path, String selector, String extension,
+                                     CacheService.CacheEntry stale) {
+        CacheService.Flight flight = cacheService.startFlight(path, selector, extension);
+        if (flight == null || !flight.isLeader()) {
+            return;
+        }
+
+        try {
+            refreshExecutor.execute(() -> {
+                CacheService.CacheEntry entry = null;
+                try {
+                    entry = renderEntry(path, selector, extension, stale);
+                } catch (Exception e) {
+                    LOG.warn("Background refresh failed for {}", path, e);
+                } finally {
+                    flight.complete(entry);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            flight.complete(null);
+        }
+    }
+
+    /**
+     * Render and cache a JSON entry without a client response.
+     * If a subtree-covering validator has not changed, the stale body is re-cached as is.
+     */
+    private CacheService.CacheEntry renderEntry(String path, String selector, String extension,
+                                                CacheService.CacheEntry stale)
+            throws RepositoryException, IOException {
+
+        Session session = repository.login(new SimpleCredentials("anonymous", "".toCharArray()));
+        try {
+            if (!session.nodeExists(path)) {
+                cacheService.invalidate(path);
+                return null;
+            }
+
+            Node node = session.getNode(path);
+            if (isBinaryRequest(node, extension)) {
+                return null;
+            }
+
+            JsonContentRenderer.Validators validators = renderer.validators(node, selector);
+            String etag = validators.getETag();
+            long lastModified = validators.getLastModified();
+
+            // An equal ETag only proves an equal body when it covers every rendered node
+            CacheService.CacheEntry entry;
+            byte[] unchanged = stale != null && validators.coversSubtree() && etag.equals(stale.getETag())
+                    ? stale.getData()
+                    : null;
+            if (unchanged != null) {
+                entry = new CacheService.CacheEntry(unchanged, stale.getContentType(), etag, lastModified,
+                        stale.getDependencies());
+                if (stale.getGzipData() != null) {
+                    entry = entry.withGzip(stale.getGzipData());
+                }
+            } else {
+                ResponseBuffer buffer = ResponseBuffer.acquire(cacheService.getMaxEntrySize());
+                CacheDependencies dependencies = new CacheDependencies();
+                try {
+                    renderer.render(node, renderer.depthFor(selector), buffer, dependencies);
+                    if (buffer.isOverflowed()) {
+                        return null;
+                    }
+                    entry = new CacheService.CacheEntry(buffer.toByteArray(), "application/json", etag, lastModified,
+                            dependencies);
+                } finally {
+                    buffer.release();
+                }
+            }
+
+            cacheService.put(path, selector, extension, entry);
+            return entry;
+        } finally {
+            session.logout();
+        }
+    }
+
     private String extractPath(SlingHttpServletRequest request) {
         String path = request.getRequestPathInfo().getResourcePath();
 
@@ -158,6 +455,14 @@ public class ContentDeliveryServlet extends SlingSafeMethodsServlet {
         return path;
     }
 
+    private boolean isJsonRequest(String extension) {
+        return extension == null || "json".equals(extension);
+    }
+
+    private boolean acceptsGzip(SlingHttpServletRequest request) {
+        return ContentEncoding.acceptsGzip(request.getHeader("Accept-Encoding"));
+    }
+
     private boolean isBinaryRequest(Node node, String extension) throws RepositoryException {
         if (extension == null) {
             return false;
@@ -177,179 +482,380 @@ public class ContentDeliveryServlet extends SlingSafeMethodsServlet {
         return false;
     }
 
-    private void streamBinary(Node node, String extension, SlingHttpServletResponse response)
+    private void streamBinary(Node node, SlingHttpServletRequest request, SlingHttpServletResponse response)
             throws RepositoryException, IOException {
 
-        Binary binary = null;
-        String mimeType = "application/octet-stream";
-        long size = -1;
+        Node content = findBinaryContent(node);
+        if (content == null) {
+            sendError(response, 404, "Binary not found");
+            return;
+        }
+
+        Binary binary = content.getProperty("jcr:data").getBinary();
+        try {
+            String mimeType = content.hasProperty("jcr:mimeType")
+                    ? content.getProperty("jcr:mimeType").getString()
+                    : "application/octet-stream";
+            long lastModified = content.hasProperty("jcr:lastModified")
+                    ? content.getProperty("jcr:lastModified").getDate().getTimeInMillis()
+                    : -1;
+            long size = binary.getSize();
+            String blobId = getBlobId(binary, size);
+            String etag = config.enableETag() ? binaryETag(content, blobId, size, lastModified) : null;
+
+            // Set response headers
+            response.setHeader("Accept-Ranges", "bytes");
+            response.setHeader("Cache-Control", "public, max-age=" + (config.cacheMaxAge() * 10));
+            if (etag != null) {
+                response.setHeader("ETag", "\"" + etag + "\"");
+            }
+            if (lastModified > 0) {
+                response.setDateHeader("Last-Modified", lastModified);
+            }
 
-        // Try to find binary content
-        if (node.hasNode("jcr:content")) {
-            Node content = node.getNode("jcr:content");
+            if (isNotModified(request, etag, lastModified)) {
+                response.setStatus(304);
+                return;
+            }
 
-            // Check for direct binary
-            if (content.hasProperty("jcr:data")) {
-                binary = content.getProperty("jcr:data").getBinary();
-                size = binary.getSize();
+            // Hand large downloads to MinIO so they do not tie up a publish thread
+            if (blobId != null && config.directBinaryAccess() && size >= config.directBinaryMinSize()
+                    && redirectToBlob(blobId, mimeType, response)) {
+                return;
+            }
 
-                if (content.hasProperty("jcr:mimeType")) {
-                    mimeType = content.getProperty("jcr:mimeType").getString();
+            List<ByteRange> ranges = null;
+            String rangeHeader = request.getHeader("Range");
+            if (rangeHeader != null && size >= 0 && ifRangeMatches(request, etag, lastModified)) {
+                ranges = ByteRange.parse(rangeHeader, size, config.maxRanges());
+                if (ranges != null && ranges.isEmpty()) {
+                    response.setHeader("Content-Range", "bytes */" + size);
+                    sendError(response, 416, "Requested range not satisfiable");
+                    return;
                 }
             }
-            // Check for renditions
-            else if (content.hasNode("renditions/original")) {
-                Node rendition = content.getNode("renditions/original");
-                if (rendition.hasNode("jcr:content")) {
-                    Node renditionContent = rendition.getNode("jcr:content");
-                    if (renditionContent.hasProperty("jcr:data")) {
-                        binary = renditionContent.getProperty("jcr:data").getBinary();
-                        size = binary.getSize();
-
-                        if (renditionContent.hasProperty("jcr:mimeType")) {
-                            mimeType = renditionContent.getProperty("jcr:mimeType").getString();
-                        }
+
+            if (ranges == null) {
+                // Stream binary data
+                response.setContentType(mimeType);
+                if (size >= 0) {
+                    response.setContentLengthLong(size);
+                }
+                try (InputStream in = binary.getStream();
+                     OutputStream out = response.getOutputStream()) {
+
+                    byte[] buffer = new byte[config.streamBufferSize()];
+                    int bytesRead;
+                    while ((bytesRead = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, bytesRead);
                     }
                 }
+            } else if (ranges.size() == 1) {
+                ByteRange range = ranges.get(0);
+                response.setStatus(206);
+                response.setContentType(mimeType);
+                response.setHeader("Content-Range", range.toContentRange(size));
+                response.setContentLengthLong(range.getLength());
+                copyRange(binary, blobId, range, response.getOutputStream());
+            } else {
+                streamMultipleRanges(binary, blobId, ranges, mimeType, size, response);
             }
+        } finally {
+            binary.dispose();
         }
+    }
 
-        if (binary == null) {
-            sendError(response, 404, "Binary not found");
-            return;
+    /**
+     * Locate the node holding the binary, either directly or via the original rendition.
+     */
+    private Node findBinaryContent(Node node) throws RepositoryException {
+        if (!node.hasNode("jcr:content")) {
+            return null;
         }
+        Node content = node.getNode("jcr:content");
 
-        try {
-            // Set response headers
-            response.setContentType(mimeType);
-            if (size >= 0) {
-                response.setContentLengthLong(size);
+        // Check for direct binary
+        if (content.hasProperty("jcr:data")) {
+            return content;
+        }
+
+        // Check for renditions
+        if (content.hasNode("renditions/original/jcr:content")) {
+            Node renditionContent = content.getNode("renditions/original/jcr:content");
+            if (renditionContent.hasProperty("jcr:data")) {
+                return renditionContent;
             }
+        }
+        return null;
+    }
 
-            // Set cache headers for assets
-            response.setHeader("Cache-Control", "public, max-age=" + (config.cacheMaxAge() * 10));
+    private void streamMultipleRanges(Binary binary, String blobId, List<ByteRange> ranges, String mimeType,
+                                      long size, SlingHttpServletResponse response)
+            throws RepositoryException, IOException {
 
-            // Stream binary data
-            try (InputStream in = binary.getStream();
-                 OutputStream out = response.getOutputStream()) {
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        response.setStatus(206);
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+
+        OutputStream out = response.getOutputStream();
+        for (ByteRange range : ranges) {
+            String partHeader = "\r\n--" + boundary + "\r\n"
+                    + "Content-Type: " + mimeType + "\r\n"
+                    + "Content-Range: " + range.toContentRange(size) + "\r\n\r\n";
+            out.write(partHeader.getBytes(StandardCharsets.US_ASCII));
+            copyRange(binary, blobId, range, out);
+        }
+        out.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
 
-                byte[] buffer = new byte[config.streamBufferSize()];
-                int bytesRead;
-                while ((bytesRead = in.read(buffer)) != -1) {
-                    out.write(buffer, 0, bytesRead);
+    /**
+     * Copy one range of the binary. Blob-backed binaries are read with positioned
+     * reads against the blob store, so only the requested bytes are fetched.
+     */
+    private void copyRange(Binary binary, String blobId, ByteRange range, OutputStream out)
+            throws RepositoryException, IOException {
+
+        byte[] buffer = new byte[(int) Math.min(config.streamBufferSize(), range.getLength())];
+        long position = range.getStart();
+        long remaining = range.getLength();
+
+        if (blobId != null) {
+            BlobStore blobStore = blobStoreFactory.createBlobStore();
+            while (remaining > 0) {
+                int read = blobStore.readBlob(blobId, position, buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read <= 0) {
+                    throw shortRead(blobId, range, remaining);
                 }
+                out.write(buffer, 0, read);
+                position += read;
+                remaining -= read;
+            }
+            return;
+        }
+
+        try (InputStream in = binary.getStream()) {
+            long skipped = 0;
+            while (skipped < position) {
+                long n = in.skip(position - skipped);
+                if (n <= 0) {
+                    if (in.read() == -1) {
+                        throw shortRead(null, range, remaining);
+                    }
+                    n = 1;
+                }
+                skipped += n;
+            }
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read == -1) {
+                    throw shortRead(null, range, remaining);
+                }
+                out.write(buffer, 0, read);
+                remaining -= read;
             }
-        } finally {
-            binary.dispose();
         }
     }
 
-    private Map<String, Object> serializeNode(Node node, int depth) throws RepositoryException {
-        Map<String, Object> result = new LinkedHashMap<>();
+    /**
+     * The Content-Length and Content-Range headers are already committed, so a
+     * short binary must abort the response rather than end it early as if complete.
+     */
+    private static EOFException shortRead(String blobId, ByteRange range, long remaining) {
+        return new EOFException("Binary " + (blobId != null ? blobId + " " : "") + "ended " + remaining
+                + " bytes before the end of range " + range.getStart() + "-" + range.getEnd());
+    }
 
-        // Add path and type
-        result.put("jcr:path", node.getPath());
-        result.put("jcr:primaryType", node.getPrimaryNodeType().getName());
+    /**
+     * Resolve the blob store id behind a binary, if it is served by our blob store.
+     */
+    private String getBlobId(Binary binary, long size) {
+        if (blobStoreFactory == null || !(binary instanceof ReferenceBinary)) {
+            return null;
+        }
 
-        // Add properties
-        PropertyIterator properties = node.getProperties();
-        while (properties.hasNext()) {
-            Property prop = properties.nextProperty();
-            String name = prop.getName();
+        String reference = ((ReferenceBinary) binary).getReference();
+        if (reference == null) {
+            return null;
+        }
 
-            // Skip binary data in JSON response
-            if (prop.getType() == PropertyType.BINARY) {
-                result.put(name, "[binary]");
-                continue;
+        try {
+            BlobStore blobStore = blobStoreFactory.createBlobStore();
+            String blobId = blobStore.getBlobId(reference);
+            // Only trust the id if the store agrees on the binary's length
+            if (blobId != null && blobStore.getBlobLength(blobId) == size) {
+                return blobId;
             }
+        } catch (IOException | RuntimeException e) {
+            LOG.debug("Could not resolve blob for reference {}: {}", reference, e.getMessage());
+        }
+        return null;
+    }
 
+    /**
+     * Redirect to a presigned GET URL for the blob. URLs are reused within a time
+     * bucket and all expire at the same instant, so CDNs see a stable redirect target.
+     *
+     * @return false if no URL could be created and the binary should be streamed
+     */
+    private boolean redirectToBlob(String blobId, String mimeType, SlingHttpServletResponse response) {
+        long now = System.currentTimeMillis();
+        long bucketMillis = Math.max(1, config.directBinaryBucketSeconds()) * 1000L;
+        long bucketStart = now - (now % bucketMillis);
+        long bucketEnd = bucketStart + bucketMillis;
+
+        if (bucketStart != presignedBucket) {
+            presignedUrls.clear();
+            presignedBucket = bucketStart;
+        }
+
+        String key = blobId + "|" + mimeType;
+        URL url = presignedUrls.get(key);
+        if (url == null) {
+            Duration validity = Duration.ofMillis(bucketEnd + config.directBinaryExpirySeconds() * 1000L - now);
             try {
-                if (prop.isMultiple()) {
-                    result.put(name, getMultipleValues(prop));
-                } else {
-                    result.put(name, getValue(prop.getValue()));
-                }
-            } catch (Exception e) {
-                LOG.debug("Error serializing property {}: {}", name, e.getMessage());
+                url = blobStoreFactory.createPresignedGetUrl(blobId, validity, mimeType);
+            } catch (RuntimeException e) {
+                LOG.warn("Failed to presign blob {}, streaming instead", blobId, e);
+                return false;
+            }
+            if (presignedUrls.size() < MAX_PRESIGNED_URLS) {
+                presignedUrls.put(key, url);
             }
         }
 
-        // Add children if depth allows
-        if (depth > 0) {
-            NodeIterator children = node.getNodes();
-            if (children.hasNext()) {
-                Map<String, Object> childMap = new LinkedHashMap<>();
-                while (children.hasNext()) {
-                    Node child = children.nextNode();
-                    String childName = child.getName();
+        // The redirect itself stays cacheable until the bucket rolls over
+        response.setHeader("Cache-Control", "public, max-age=" + Math.max(1, (bucketEnd - now) / 1000));
+        response.setHeader("Location", url.toString());
+        response.setStatus(302);
+        return true;
+    }
 
-                    // Skip system nodes
-                    if (childName.startsWith("rep:")) {
-                        continue;
-                    }
+    private String binaryETag(Node content, String blobId, long size, long lastModified) throws RepositoryException {
+        // Blob ids are content hashes and make ideal strong validators
+        if (blobId != null) {
+            return blobId;
+        }
+        String key = content.getPath() + "|" + size + "|" + lastModified;
+        return Integer.toHexString(key.hashCode()) + Long.toHexString(size);
+    }
 
-                    childMap.put(childName, serializeNode(child, depth - 1));
-                }
-                if (!childMap.isEmpty()) {
-                    result.put(":children", childMap);
-                }
-            }
+    /**
+     * Evaluate If-Range: a range request is only honored if the validator still matches.
+     */
+    private boolean ifRangeMatches(SlingHttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange == null) {
+            return true;
         }
 
-        return result;
-    }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("W/")) {
+            // Weak tags never match for If-Range
+            return false;
+        }
+        if (ifRange.startsWith("\"")) {
+            return etag != null && ifRange.equals("\"" + etag + "\"");
+        }
 
-    private List<Object> getMultipleValues(Property prop) throws RepositoryException {
-        List<Object> values = new ArrayList<>();
-        for (Value v : prop.getValues()) {
-            values.add(getValue(v));
+        try {
+            long date = request.getDateHeader("If-Range");
+            return lastModified > 0 && date >= 0 && lastModified / 1000 == date / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
         }
-        return values;
     }
 
-    private Object getValue(Value value) throws RepositoryException {
-        switch (value.getType()) {
-            case PropertyType.BOOLEAN:
-                return value.getBoolean();
-            case PropertyType.LONG:
-                return value.getLong();
-            case PropertyType.DOUBLE:
-                return value.getDouble();
-            case PropertyType.DECIMAL:
-                return value.getDecimal();
-            case PropertyType.DATE:
-                return value.getDate().toInstant().toString();
-            default:
-                return value.getString();
-        }
+    private void setCacheHeaders(SlingHttpServletResponse response, String etag, long lastModified) {
+        setCacheHeaders(response, etag, lastModified, config.cacheMaxAge());
     }
 
-    private void setCacheHeaders(SlingHttpServletResponse response, Node node) throws RepositoryException {
+    private void setCacheHeaders(SlingHttpServletResponse response, String etag, long lastModified, int maxAge) {
         // Set Cache-Control
-        response.setHeader("Cache-Control", "public, max-age=" + config.cacheMaxAge());
+        response.setHeader("Cache-Control", cacheControl(maxAge));
+        // JSON may be served gzip-encoded, so every response for the URL varies on it
+        response.setHeader("Vary", "Accept-Encoding");
 
-        // Generate ETag if enabled
-        if (config.enableETag()) {
-            String etag = generateETag(node);
+        if (etag != null) {
             response.setHeader("ETag", "\"" + etag + "\"");
         }
 
         // Set Last-Modified if available
-        if (node.hasProperty("jcr:lastModified")) {
-            long lastModified = node.getProperty("jcr:lastModified").getDate().getTimeInMillis();
+        if (lastModified > 0) {
             response.setDateHeader("Last-Modified", lastModified);
         }
     }
 
-    private String generateETag(Node node) throws RepositoryException {
-        StringBuilder sb = new StringBuilder();
-        sb.append(node.getPath());
+    /**
+     * Evaluate If-None-Match, falling back to If-Modified-Since when no entity tag was sent.
+     */
+    private boolean isNotModified(SlingHttpServletRequest request, String etag, long lastModified) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            return etag != null && matchesETag(ifNoneMatch, etag);
+        }
+
+        if (lastModified > 0) {
+            long ifModifiedSince;
+            try {
+                ifModifiedSince = request.getDateHeader("If-Modified-Since");
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+            // HTTP dates have second precision
+            return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+        }
+
+        return false;
+    }
+
+    private boolean matchesETag(String header, String etag) {
+        String quoted = "\"" + etag + "\"";
+        for (String candidate : header.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            // Weak comparison is sufficient for GET
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(quoted)) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        if (node.hasProperty("jcr:lastModified")) {
-            sb.append(node.getProperty("jcr:lastModified").getString());
+    /**
+     * Cache-Control value, advertising the stale serving windows of the response cache.
+     */
+    private String cacheControl(int maxAge) {
+        StringBuilder sb = new StringBuilder("public, max-age=").append(maxAge);
+        if (cacheService != null) {
+            sb.append(", stale-while-revalidate=").append(cacheService.getStaleWhileRevalidateSeconds());
+            sb.append(", stale-if-error=").append(cacheService.getStaleIfErrorSeconds());
         }
+        return sb.toString();
+    }
+
+    private String validatorETag(String etag) {
+        return config.enableETag() ? etag : null;
+    }
+
+    private String snapshotETag(SnapshotStore.Snapshot snapshot) {
+        String etag = validatorETag(snapshot.getETag());
+        // Each content coding is a distinct representation and needs its own strong tag
+        return etag != null && snapshot.isGzip() ? etag + "-gz" : etag;
+    }
 
-        return Integer.toHexString(sb.toString().hashCode());
+    private void sendNotModified(SlingHttpServletResponse response, String etag, long lastModified) {
+        sendNotModified(response, etag, lastModified, config.cacheMaxAge());
+    }
+
+    private void sendNotModified(SlingHttpServletResponse response, String etag, long lastModified, int maxAge) {
+        setCacheHeaders(response, etag, lastModified, maxAge);
+        response.setStatus(304);
     }
 
     private void sendNotFound(SlingHttpServletResponse response, String path) throws IOException {
@@ -359,6 +865,7 @@ public class ContentDeliveryServlet extends SlingSafeMethodsServlet {
         error.put("status", 404);
 
         response.setContentType("application/json");
+        response.setHeader("Vary", "Accept-Encoding");
         response.setStatus(404);
         OBJECT_MAPPER.writeValue(response.getOutputStream(), error);
     }
@@ -369,14 +876,80 @@ public class ContentDeliveryServlet extends SlingSafeMethodsServlet {
         error.put("status", status);
 
         response.setContentType("application/json");
+        response.setHeader("Vary", "Accept-Encoding");
         response.setStatus(status);
         OBJECT_MAPPER.writeValue(response.getOutputStream(), error);
     }
 
-    private void sendCachedResponse(SlingHttpServletResponse response, CacheService.CacheEntry entry)
-            throws IOException {
+    /**
+     * Serve a cached entry.
+     *
+     * @return false if the entry was evicted before it could be pinned; nothing is written then
+     */
+    private boolean sendFromCache(SlingHttpServletRequest request, SlingHttpServletResponse response,
+                                  CacheService.CacheEntry entry, String cacheStatus) throws IOException {
+        if (!entry.retain()) {
+            return false;
+        }
+        try {
+            boolean gzip = entry.getGzipData() != null && acceptsGzip(request);
+            // Answer conditional requests straight from the cache metadata
+            String etag = validatorETag(entry.getETag());
+            if (etag != null && gzip) {
+                etag = etag + "-gz";
+            }
+            // Stale content must not be cached downstream as if it were fresh
+            int maxAge = "STALE".equals(cacheStatus) ? 0 : config.cacheMaxAge();
+            if (isNotModified(request, etag, entry.getLastModified())) {
+                sendNotModified(response, etag, entry.getLastModified(), maxAge);
+            } else {
+                sendCachedResponse(response, entry, etag, gzip, cacheStatus, maxAge);
+            }
+            return true;
+        } finally {
+            entry.release();
+        }
+    }
+
+    /**
+     * Write a cached body, or its precompressed gzip variant, without compressing per request.
+     */
+    private void sendCachedResponse(SlingHttpServletResponse response, CacheService.CacheEntry entry, String etag,
+                                    boolean gzip, String cacheStatus, int maxAge) throws IOException {
         response.setContentType(entry.getContentType());
-        response.setHeader("X-Cache", "HIT");
-        response.getOutputStream().write(entry.getData());
+        setCacheHeaders(response, etag, entry.getLastModified(), maxAge);
+        response.setHeader("X-Cache", cacheStatus);
+        if (gzip) {
+            byte[] compressed = entry.getGzipData();
+            response.setHeader("Content-Encoding", "gzip");
+            response.setContentLength(compressed.length);
+            response.getOutputStream().write(compressed);
+        } else {
+            response.setContentLength(entry.getLength());
+            entry.writeTo(response.getOutputStream());
+        }
+    }
+
+    private void sendSnapshot(SlingHttpServletResponse response, SnapshotStore.Snapshot snapshot, String etag)
+            throws IOException {
+        FileChannel channel = snapshot.getChannel();
+        long offset = snapshot.getOffset();
+        long size = snapshot.getLength();
+
+        response.setContentType("application/json;charset=UTF-8");
+        setCacheHeaders(response, etag, snapshot.getLastModified());
+        response.setHeader("X-Cache", "SNAPSHOT");
+        if (snapshot.isGzip()) {
+            response.setHeader("Content-Encoding", "gzip");
+        }
+        response.setContentLengthLong(size);
+
+        // Streams the file through the response's OutputStream. The channel adapter copies
+        // through a small buffer, so this is not zero-copy, but the body is never held on the heap
+        WritableByteChannel target = Channels.newChannel(response.getOutputStream());
+        long position = 0;
+        while (position < size) {
+            position += channel.transferTo(offset + position, size - position, target);
+        }
     }
 }
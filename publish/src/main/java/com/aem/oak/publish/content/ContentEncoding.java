@@ -0,0 +1,82 @@
+package com.aem.oak.publish.content;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content-coding helpers shared by the cache tiers and the delivery servlet.
+ */
+final class ContentEncoding {
+
+    private ContentEncoding() {
+    }
+
+    /**
+     * Whether a body of this type is worth compressing; images, video and
+     * archives are already compressed.
+     */
+    static boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase(Locale.ROOT);
+        return type.startsWith("text/")
+                || type.contains("json")
+                || type.contains("xml")
+                || type.contains("javascript")
+                || type.startsWith("image/svg");
+    }
+
+    /**
+     * Whether an {@code Accept-Encoding} header allows gzip, honouring q-values:
+     * {@code gzip;q=0} refuses it, and {@code *} covers it unless gzip is listed.
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        double gzip = -1;
+        double any = -1;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            String coding = params[0].trim().toLowerCase(Locale.ROOT);
+            double q = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.regionMatches(true, 0, "q=", 0, 2)) {
+                    q = parseQuality(param.substring(2).trim());
+                }
+            }
+
+            if (coding.equals("gzip") || coding.equals("x-gzip")) {
+                // Listed more than once, a refusal wins
+                gzip = gzip < 0 ? q : Math.min(gzip, q);
+            } else if (coding.equals("*")) {
+                any = q;
+            }
+        }
+        return gzip >= 0 ? gzip > 0 : any > 0;
+    }
+
+    private static double parseQuality(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    static byte[] gzip(byte[] data) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(data);
+        } catch (IOException e) {
+            // Writing to memory cannot fail
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,44 @@
+package com.aem.oak.publish.content;
+
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The JSON renderer shared by the delivery servlet, the batch servlet and the
+ * snapshot store. They serve the same URLs and share cache keys, so they must
+ * render the same representation; a change here reactivates all of them.
+ */
+@Component(service = ContentRendererService.class)
+@Designate(ocd = ContentRendererService.Config.class)
+public class ContentRendererService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContentRendererService.class);
+
+    @ObjectClassDefinition(name = "AEM Oak Content Renderer Configuration")
+    public @interface Config {
+        @AttributeDefinition(name = "Max Depth", description = "Maximum depth for JSON serialization")
+        int maxDepth() default 5;
+    }
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL)
+    private ContentRevisionService revisionService;
+
+    private JsonContentRenderer renderer;
+
+    @Activate
+    protected void activate(Config config) {
+        this.renderer = new JsonContentRenderer(config.maxDepth(), revisionService);
+        LOG.info("Content renderer activated, maxDepth={}", config.maxDepth());
+    }
+
+    public JsonContentRenderer getRenderer() {
+        return renderer;
+    }
+}
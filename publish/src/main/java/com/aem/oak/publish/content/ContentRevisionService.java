@@ -0,0 +1,116 @@
+package com.aem.oak.publish.content;
+
+import com.aem.oak.core.repository.OakRepositoryInitializer;
+import org.apache.jackrabbit.oak.commons.PathUtils;
+import org.apache.jackrabbit.oak.plugins.document.AbstractDocumentNodeState;
+import org.apache.jackrabbit.oak.plugins.document.DocumentNodeStore;
+import org.apache.jackrabbit.oak.plugins.document.Revision;
+import org.apache.jackrabbit.oak.plugins.document.RevisionVector;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Revisions of the local DocumentNodeStore.
+ * The last revision of a node moves whenever anything in its subtree changes,
+ * which makes it a cheap validator for renderings of that subtree.
+ */
+@Component(service = ContentRevisionService.class)
+public class ContentRevisionService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContentRevisionService.class);
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL)
+    private OakRepositoryInitializer repositoryInitializer;
+
+    /**
+     * Gets the last revision of the subtree at the path as seen by this instance.
+     *
+     * @return the revision, or null if the node store is not available or the node does not exist
+     */
+    public RevisionVector getSubtreeRevision(String path) {
+        DocumentNodeStore nodeStore = getNodeStore();
+        if (nodeStore == null) {
+            return null;
+        }
+
+        try {
+            NodeState state = nodeStore.getRoot();
+            for (String name : PathUtils.elements(path)) {
+                state = state.getChildNode(name);
+            }
+            return state.exists() && state instanceof AbstractDocumentNodeState
+                    ? ((AbstractDocumentNodeState) state).getLastRevision()
+                    : null;
+        } catch (RuntimeException e) {
+            LOG.debug("Could not read revision of {}: {}", path, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Whether a node store is available to read revisions from.
+     */
+    public boolean isAvailable() {
+        return getNodeStore() != null;
+    }
+
+    /**
+     * Gets the head revision of the local node store, which covers every
+     * commit this instance has made or seen.
+     *
+     * @return the revision, or null if the node store is not available
+     */
+    public String getHeadRevision() {
+        DocumentNodeStore nodeStore = getNodeStore();
+        return nodeStore != null ? nodeStore.getHeadRevision().toString() : null;
+    }
+
+    /**
+     * Whether everything up to a revision published by another cluster node is
+     * visible here, i.e. its background read has caught up. True when it cannot
+     * be told: no node store, or a revision that does not parse.
+     */
+    public boolean isVisible(String revision) {
+        DocumentNodeStore nodeStore = getNodeStore();
+        if (nodeStore == null || revision == null) {
+            return true;
+        }
+
+        RevisionVector remote;
+        try {
+            remote = RevisionVector.fromString(revision);
+        } catch (RuntimeException e) {
+            LOG.debug("Ignoring unparseable revision {}", revision);
+            return true;
+        }
+        RevisionVector head = nodeStore.getHeadRevision();
+        for (Revision r : remote) {
+            if (head.isRevisionNewer(r)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Latest commit time in a revision, or -1 if it is null.
+     */
+    public static long getTimestamp(RevisionVector revision) {
+        long timestamp = -1;
+        if (revision != null) {
+            for (Revision r : revision) {
+                timestamp = Math.max(timestamp, r.getTimestamp());
+            }
+        }
+        return timestamp;
+    }
+
+    private DocumentNodeStore getNodeStore() {
+        OakRepositoryInitializer initializer = repositoryInitializer;
+        return initializer != null ? initializer.getNodeStore() : null;
+    }
+}
@@ -0,0 +1,341 @@
+package com.aem.oak.publish.content;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import org.apache.jackrabbit.oak.plugins.document.RevisionVector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.*;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Streaming JSON renderer for JCR content.
+ * Writes a node tree straight to a {@link JsonGenerator} without building
+ * an intermediate map, producing the same document shape as the delivery API.
+ */
+public class JsonContentRenderer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JsonContentRenderer.class);
+
+    private static final JsonFactory JSON_FACTORY = JsonFactory.builder()
+            .disable(StreamWriteFeature.AUTO_CLOSE_TARGET)
+            .build();
+
+    private static final String TAGS_PROPERTY = "cq:tags";
+
+    private final int maxDepth;
+    private final ContentRevisionService revisions;
+
+    public JsonContentRenderer(int maxDepth) {
+        this(maxDepth, null);
+    }
+
+    /**
+     * @param revisions source of subtree revisions for validators, or null
+     */
+    public JsonContentRenderer(int maxDepth, ContentRevisionService revisions) {
+        this.maxDepth = maxDepth;
+        this.revisions = revisions;
+    }
+
+    /**
+     * Render the node as UTF-8 JSON to the given stream.
+     * The stream is flushed but not closed.
+     */
+    public void render(Node node, OutputStream out) throws RepositoryException, IOException {
+        render(node, maxDepth, out);
+    }
+
+    /**
+     * Render the node to the given depth as UTF-8 JSON.
+     */
+    public void render(Node node, int depth, OutputStream out) throws RepositoryException, IOException {
+        render(node, depth, out, null);
+    }
+
+    /**
+     * Render the node to the given depth, recording the rendered node paths
+     * and {@code cq:tags} values into {@code dependencies} when it is not null.
+     */
+    public void render(Node node, int depth, OutputStream out, CacheDependencies dependencies)
+            throws RepositoryException, IOException {
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+            writeNode(generator, node, Math.min(depth, maxDepth), dependencies);
+        }
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Resolve the rendering depth for a request selector.
+     * Numeric selectors limit the depth Sling-style; anything else uses the maximum.
+     */
+    public int depthFor(String selector) {
+        if (selector == null || selector.isEmpty() || "infinity".equals(selector)) {
+            return maxDepth;
+        }
+        String first = selector.split("\\.")[0];
+        if (!first.isEmpty() && first.length() <= 3 && first.chars().allMatch(Character::isDigit)) {
+            return Math.min(Integer.parseInt(first), maxDepth);
+        }
+        return maxDepth;
+    }
+
+    /**
+     * Validators for the rendering of a node, computed before any serialization.
+     *
+     * <p>With a node store at hand they derive from the last revision of the
+     * subtree, which moves on any change below the node. The session is then
+     * refreshed, so a body rendered from it afterwards is at least as new as the
+     * validators. Without one they are a digest over the path and modification
+     * date of every node the rendering visits, which misses edits that leave
+     * jcr:lastModified alone and so does not cover the subtree.</p>
+     */
+    public Validators validators(Node node, String selector) throws RepositoryException {
+        int depth = depthFor(selector);
+        MessageDigest digest = sha1();
+        update(digest, node.getPath() + '|' + depth);
+
+        RevisionVector revision = revisions != null ? revisions.getSubtreeRevision(node.getPath()) : null;
+        if (revision != null) {
+            update(digest, "|" + revision);
+            long lastModified = Math.max(lastModified(node), ContentRevisionService.getTimestamp(revision));
+            node.getSession().refresh(false);
+            return new Validators(hex(digest), lastModified, true);
+        }
+
+        long lastModified = digestTree(digest, node, depth);
+        return new Validators(hex(digest), lastModified, false);
+    }
+
+    /**
+     * Latest modification time of the node or its jcr:content, or -1 if unknown.
+     */
+    public long lastModified(Node node) throws RepositoryException {
+        long lastModified = -1;
+        if (node.hasProperty("jcr:lastModified")) {
+            lastModified = node.getProperty("jcr:lastModified").getDate().getTimeInMillis();
+        }
+        if (node.hasNode("jcr:content")) {
+            Node content = node.getNode("jcr:content");
+            if (content.hasProperty("jcr:lastModified")) {
+                lastModified = Math.max(lastModified,
+                        content.getProperty("jcr:lastModified").getDate().getTimeInMillis());
+            }
+        }
+        return lastModified;
+    }
+
+    /**
+     * Digest the path and modification date of each node the rendering visits.
+     *
+     * @return the latest modification date seen
+     */
+    private long digestTree(MessageDigest digest, Node node, int depth) throws RepositoryException {
+        long lastModified = lastModified(node);
+        update(digest, "|" + node.getPath() + '@' + lastModified);
+        if (depth > 0) {
+            NodeIterator children = node.getNodes();
+            while (children.hasNext()) {
+                Node child = children.nextNode();
+                if (!child.getName().startsWith("rep:")) {
+                    lastModified = Math.max(lastModified, digestTree(digest, child, depth - 1));
+                }
+            }
+        }
+        return lastModified;
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String hex(MessageDigest digest) {
+        byte[] hash = digest.digest();
+        StringBuilder hex = new StringBuilder(16);
+        for (int i = 0; i < 8; i++) {
+            hex.append(String.format("%02x", hash[i]));
+        }
+        return hex.toString();
+    }
+
+    private void writeNode(JsonGenerator generator, Node node, int depth, CacheDependencies dependencies)
+            throws RepositoryException, IOException {
+
+        if (dependencies != null) {
+            dependencies.addPath(node.getPath());
+        }
+
+        generator.writeStartObject();
+
+        // Add path and type
+        generator.writeStringField("jcr:path", node.getPath());
+        generator.writeStringField("jcr:primaryType", node.getPrimaryNodeType().getName());
+
+        // Add properties
+        PropertyIterator properties = node.getProperties();
+        while (properties.hasNext()) {
+            writeProperty(generator, properties.nextProperty(), dependencies);
+        }
+
+        // Add children if depth allows
+        if (depth > 0) {
+            boolean childrenStarted = false;
+            NodeIterator children = node.getNodes();
+            while (children.hasNext()) {
+                Node child = children.nextNode();
+                String childName = child.getName();
+
+                // Skip system nodes
+                if (childName.startsWith("rep:")) {
+                    continue;
+                }
+
+                if (!childrenStarted) {
+                    generator.writeObjectFieldStart(":children");
+                    childrenStarted = true;
+                }
+                generator.writeFieldName(childName);
+                writeNode(generator, child, depth - 1, dependencies);
+            }
+            if (childrenStarted) {
+                generator.writeEndObject();
+            }
+        }
+
+        generator.writeEndObject();
+    }
+
+    private void writeProperty(JsonGenerator generator, Property prop, CacheDependencies dependencies)
+            throws RepositoryException, IOException {
+        String name = prop.getName();
+
+        // Skip binary data in JSON response
+        if (prop.getType() == PropertyType.BINARY) {
+            generator.writeStringField(name, "[binary]");
+            return;
+        }
+
+        // Resolve values before writing so a failing property is skipped cleanly
+        boolean multiple;
+        Object single = null;
+        Object[] values = null;
+        try {
+            multiple = prop.isMultiple();
+            if (multiple) {
+                Value[] jcrValues = prop.getValues();
+                values = new Object[jcrValues.length];
+                for (int i = 0; i < jcrValues.length; i++) {
+                    values[i] = getValue(jcrValues[i]);
+                }
+            } else {
+                single = getValue(prop.getValue());
+            }
+        } catch (RepositoryException | RuntimeException e) {
+            LOG.debug("Error serializing property {}: {}", name, e.getMessage());
+            return;
+        }
+
+        if (dependencies != null && TAGS_PROPERTY.equals(name)) {
+            if (multiple) {
+                for (Object value : values) {
+                    dependencies.addTag(String.valueOf(value));
+                }
+            } else {
+                dependencies.addTag(String.valueOf(single));
+            }
+        }
+
+        generator.writeFieldName(name);
+        if (!multiple) {
+            writeValue(generator, single);
+            return;
+        }
+
+        generator.writeStartArray();
+        for (Object value : values) {
+            writeValue(generator, value);
+        }
+        generator.writeEndArray();
+    }
+
+    private Object getValue(Value value) throws RepositoryException {
+        switch (value.getType()) {
+            case PropertyType.BOOLEAN:
+                return value.getBoolean();
+            case PropertyType.LONG:
+                return value.getLong();
+            case PropertyType.DOUBLE:
+                return value.getDouble();
+            case PropertyType.DECIMAL:
+                return value.getDecimal();
+            case PropertyType.DATE:
+                return value.getDate().toInstant().toString();
+            default:
+                return value.getString();
+        }
+    }
+
+    private void writeValue(JsonGenerator generator, Object value) throws IOException {
+        if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else if (value instanceof Long) {
+            generator.writeNumber((Long) value);
+        } else if (value instanceof Double) {
+            generator.writeNumber((Double) value);
+        } else if (value instanceof BigDecimal) {
+            generator.writeNumber((BigDecimal) value);
+        } else {
+            generator.writeString(String.valueOf(value));
+        }
+    }
+
+    /**
+     * ETag and Last-Modified of a rendering.
+     */
+    public static final class Validators {
+        private final String etag;
+        private final long lastModified;
+        private final boolean subtree;
+
+        Validators(String etag, long lastModified, boolean subtree) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.subtree = subtree;
+        }
+
+        public String getETag() {
+            return etag;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Whether the validators change with any change below the node,
+         * so an unchanged ETag means an unchanged body.
+         */
+        public boolean coversSubtree() {
+            return subtree;
+        }
+    }
+}
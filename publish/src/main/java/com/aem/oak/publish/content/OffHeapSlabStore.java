@@ -0,0 +1,207 @@
+package com.aem.oak.publish.content;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Off-heap storage for cached response bodies.
+ * Memory is reserved as direct {@link ByteBuffer} slabs carved into fixed-size
+ * pages; a body occupies as many pages as it needs, so there is no external
+ * fragmentation and freeing is just returning page numbers to the free list.
+ *
+ * <p>Only the page table of a body lives on the heap. Bodies are reference
+ * counted so that pages are not recycled while a response is still being
+ * written from them.</p>
+ */
+public final class OffHeapSlabStore {
+
+    private static final int MAX_SLAB_SIZE = 64 * 1024 * 1024;
+
+    private final int pageSize;
+    private final int pagesPerSlab;
+    private final ByteBuffer[] slabs;
+    private final int[] freePages;
+    private int freeCount;
+    private int allocatedPages;
+
+    /**
+     * @param capacity total off-heap bytes, rounded down to whole pages
+     * @param pageSize allocation unit in bytes
+     */
+    public OffHeapSlabStore(long capacity, int pageSize) {
+        if (pageSize <= 0 || capacity < pageSize) {
+            throw new IllegalArgumentException("Capacity must hold at least one page");
+        }
+        this.pageSize = pageSize;
+        this.pagesPerSlab = Math.max(1, MAX_SLAB_SIZE / pageSize);
+
+        long totalPages = Math.min(capacity / pageSize, Integer.MAX_VALUE - 8);
+        int slabCount = (int) ((totalPages + pagesPerSlab - 1) / pagesPerSlab);
+        this.slabs = new ByteBuffer[slabCount];
+        this.freePages = new int[(int) totalPages];
+    }
+
+    /**
+     * Copy a body into off-heap pages.
+     *
+     * @return the stored body, or null if not enough pages are free
+     */
+    public Body store(byte[] data) {
+        int needed = Math.max(1, (data.length + pageSize - 1) / pageSize);
+        int[] pages = allocate(needed);
+        if (pages == null) {
+            return null;
+        }
+
+        int offset = 0;
+        for (int page : pages) {
+            int length = Math.min(pageSize, data.length - offset);
+            if (length <= 0) {
+                break;
+            }
+            pageBuffer(page, length).put(data, offset, length);
+            offset += length;
+        }
+        return new Body(pages, data.length);
+    }
+
+    /**
+     * Bytes currently held by stored bodies.
+     */
+    public synchronized long getUsedBytes() {
+        return (long) (allocatedPages - freeCount) * pageSize;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public long getCapacity() {
+        return (long) freePages.length * pageSize;
+    }
+
+    private synchronized int[] allocate(int count) {
+        int available = freeCount + (freePages.length - allocatedPages);
+        if (count > available) {
+            return null;
+        }
+
+        int[] pages = new int[count];
+        for (int i = 0; i < count; i++) {
+            if (freeCount > 0) {
+                pages[i] = freePages[--freeCount];
+            } else {
+                // Slabs are reserved lazily, so an idle cache costs no direct memory
+                int page = allocatedPages++;
+                int slab = page / pagesPerSlab;
+                if (slabs[slab] == null) {
+                    int slabPages = Math.min(pagesPerSlab, freePages.length - slab * pagesPerSlab);
+                    slabs[slab] = ByteBuffer.allocateDirect(slabPages * pageSize);
+                }
+                pages[i] = page;
+            }
+        }
+        return pages;
+    }
+
+    private synchronized void free(int[] pages) {
+        for (int page : pages) {
+            freePages[freeCount++] = page;
+        }
+    }
+
+    /**
+     * Independent view of a page, positioned at its start and limited to {@code length}.
+     */
+    private ByteBuffer pageBuffer(int page, int length) {
+        ByteBuffer slab = slabs[page / pagesPerSlab];
+        int start = (page % pagesPerSlab) * pageSize;
+        ByteBuffer view = slab.duplicate();
+        view.limit(start + length).position(start);
+        return view;
+    }
+
+    /**
+     * A body stored in off-heap pages. The cache holds one reference;
+     * readers pin the body with {@link #retain()} while copying from it.
+     */
+    public final class Body {
+        private final int[] pages;
+        private final int length;
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        private Body(int[] pages, int length) {
+            this.pages = pages;
+            this.length = length;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * Pin the pages for reading.
+         *
+         * @return false if the body has already been released
+         */
+        public boolean retain() {
+            int current;
+            do {
+                current = refs.get();
+                if (current <= 0) {
+                    return false;
+                }
+            } while (!refs.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        /**
+         * Drop a reference; the pages are recycled once none remain.
+         */
+        public void release() {
+            if (refs.decrementAndGet() == 0) {
+                free(pages);
+            }
+        }
+
+        /**
+         * Write the body to a stream. The caller must hold a reference.
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            WritableByteChannel channel = Channels.newChannel(out);
+            int remaining = length;
+            for (int page : pages) {
+                if (remaining <= 0) {
+                    break;
+                }
+                int chunk = Math.min(pageSize, remaining);
+                ByteBuffer view = pageBuffer(page, chunk);
+                while (view.hasRemaining()) {
+                    channel.write(view);
+                }
+                remaining -= chunk;
+            }
+        }
+
+        /**
+         * Heap copy of the body. The caller must hold a reference.
+         */
+        public byte[] toByteArray() {
+            byte[] data = new byte[length];
+            int offset = 0;
+            for (int page : pages) {
+                int chunk = Math.min(pageSize, length - offset);
+                if (chunk <= 0) {
+                    break;
+                }
+                pageBuffer(page, chunk).get(data, offset, chunk);
+                offset += chunk;
+            }
+            return data;
+        }
+    }
+}
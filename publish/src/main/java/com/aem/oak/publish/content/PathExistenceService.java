@@ -0,0 +1,281 @@
+package com.aem.oak.publish.content;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.osgi.service.component.annotations.*;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.*;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Answers "definitely does not exist" for content paths without a repository
+ * login, so that floods of requests for missing URLs are turned away cheaply.
+ *
+ * <p>Two sources are consulted: a bounded, short-lived negative cache of paths
+ * the repository reported missing, and an optional Bloom filter of every
+ * published path below the content root. The filter is rebuilt from the
+ * repository on startup and periodically, and kept up to date by
+ * {@link #markExists} from the replication receiver. Paths replicated to
+ * another instance arrive through the Redis invalidation broadcast, one
+ * message per imported node, and are added from the message without reading
+ * a repository that may not show them yet.</p>
+ */
+@Component(service = PathExistenceService.class, immediate = true)
+@Designate(ocd = PathExistenceService.Config.class)
+public class PathExistenceService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PathExistenceService.class);
+
+    @ObjectClassDefinition(name = "AEM Oak Path Existence Service Configuration")
+    public @interface Config {
+        @AttributeDefinition(name = "Enabled", description = "Answer requests for missing paths without a repository lookup")
+        boolean enabled() default true;
+
+        @AttributeDefinition(name = "Negative Cache Size", description = "Maximum number of missing paths remembered")
+        int negativeCacheSize() default 10000;
+
+        @AttributeDefinition(name = "Negative Cache TTL (seconds)", description = "How long a missing path is remembered")
+        int negativeCacheTtlSeconds() default 60;
+
+        @AttributeDefinition(name = "Bloom Filter", description = "Keep a Bloom filter of all published content paths")
+        boolean bloomFilterEnabled() default false;
+
+        @AttributeDefinition(name = "Content Root", description = "Subtree covered by the Bloom filter")
+        String contentRoot() default "/content";
+
+        @AttributeDefinition(name = "Expected Paths", description = "Number of paths the Bloom filter is sized for")
+        long expectedPaths() default 1000000;
+
+        @AttributeDefinition(name = "False Positive Rate", description = "Target false positive rate of the Bloom filter")
+        double falsePositiveRate() default 0.01;
+
+        @AttributeDefinition(name = "Rebuild Interval (hours)", description = "Rebuild the Bloom filter to drop deleted paths (0 = only on startup)")
+        int rebuildIntervalHours() default 24;
+    }
+
+    @Reference
+    private Repository repository;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL)
+    private RedisCacheService redisCacheService;
+
+    private final Consumer<CacheInvalidation> remoteInvalidationListener = this::onRemoteInvalidation;
+
+    private Config config;
+    private volatile Cache<String, Boolean> negativeCache;
+    private volatile PathBloomFilter filter;
+    // Filter under construction; adds go to both so none are lost while it is built
+    private volatile PathBloomFilter building;
+    private ScheduledExecutorService filterExecutor;
+
+    @Activate
+    @Modified
+    protected void activate(Config config) {
+        deactivate();
+        this.config = config;
+        if (!config.enabled()) {
+            LOG.info("Path existence service is disabled");
+            return;
+        }
+
+        negativeCache = Caffeine.newBuilder()
+                .maximumSize(config.negativeCacheSize())
+                .expireAfterWrite(Duration.ofSeconds(config.negativeCacheTtlSeconds()))
+                .build();
+
+        if (config.bloomFilterEnabled()) {
+            filterExecutor = Executors.newSingleThreadScheduledExecutor();
+            if (config.rebuildIntervalHours() > 0) {
+                filterExecutor.scheduleWithFixedDelay(this::rebuild, 0, config.rebuildIntervalHours(), TimeUnit.HOURS);
+            } else {
+                filterExecutor.execute(this::rebuild);
+            }
+        }
+        if (redisCacheService != null) {
+            redisCacheService.addInvalidationListener(remoteInvalidationListener);
+        }
+
+        LOG.info("Path existence service activated, negativeCacheSize={}, bloomFilter={}",
+                config.negativeCacheSize(), config.bloomFilterEnabled());
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        if (redisCacheService != null) {
+            redisCacheService.removeInvalidationListener(remoteInvalidationListener);
+        }
+        if (filterExecutor != null) {
+            filterExecutor.shutdown();
+            try {
+                if (!filterExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                    filterExecutor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                filterExecutor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            filterExecutor = null;
+        }
+        negativeCache = null;
+        filter = null;
+        building = null;
+    }
+
+    /**
+     * Whether a path is known not to exist. False means "unknown", never "exists".
+     */
+    public boolean isKnownMissing(String path) {
+        Cache<String, Boolean> negative = negativeCache;
+        if (negative == null) {
+            return false;
+        }
+        if (negative.getIfPresent(path) != null) {
+            return true;
+        }
+
+        PathBloomFilter current = filter;
+        return current != null
+                && isUnder(path, config.contentRoot())
+                && !current.mightContain(path);
+    }
+
+    /**
+     * Remember that the repository has no node at a path.
+     */
+    public void recordMissing(String path) {
+        Cache<String, Boolean> negative = negativeCache;
+        if (negative != null) {
+            negative.put(path, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Record that a node now exists at a path. Ancestors are recorded too, as
+     * importing a node creates any that were missing.
+     */
+    public void markExists(String path) {
+        Cache<String, Boolean> negative = negativeCache;
+        if (negative == null) {
+            return;
+        }
+
+        for (String current = path; current.length() > 1; current = parentOf(current)) {
+            negative.invalidate(current);
+            if (isUnder(current, config.contentRoot())) {
+                addToFilters(current);
+            }
+        }
+    }
+
+    private void addToFilters(String path) {
+        PathBloomFilter current = filter;
+        if (current != null) {
+            current.add(path);
+        }
+        PathBloomFilter next = building;
+        if (next != null) {
+            next.add(path);
+        }
+    }
+
+    /**
+     * Build a fresh filter from the repository and swap it in. Deleted paths
+     * cannot be removed from a Bloom filter, so this is also how they expire.
+     */
+    private void rebuild() {
+        PathBloomFilter next = new PathBloomFilter(config.expectedPaths(), config.falsePositiveRate());
+        building = next;
+        long start = System.currentTimeMillis();
+        try {
+            addSubtree(next, config.contentRoot());
+            filter = next;
+            LOG.info("Path filter built with {} paths in {} ms", next.getInsertions(),
+                    System.currentTimeMillis() - start);
+            if (next.getInsertions() > config.expectedPaths()) {
+                LOG.warn("Path filter holds {} paths but is sized for {}, false positives will rise",
+                        next.getInsertions(), config.expectedPaths());
+            }
+        } catch (RepositoryException | RuntimeException e) {
+            // Keep the previous filter, or none, rather than one with gaps
+            LOG.error("Failed to build path filter", e);
+        } finally {
+            building = null;
+        }
+    }
+
+    /**
+     * Add a node and everything below it to a filter, iteratively so deep trees
+     * cannot overflow the stack.
+     */
+    private void addSubtree(PathBloomFilter target, String root) throws RepositoryException {
+        Session session = repository.login(new SimpleCredentials("anonymous", "".toCharArray()));
+        try {
+            if (!session.nodeExists(root)) {
+                return;
+            }
+            Deque<Node> pending = new ArrayDeque<>();
+            pending.push(session.getNode(root));
+            while (!pending.isEmpty()) {
+                Node node = pending.pop();
+                target.add(node.getPath());
+                NodeIterator children = node.getNodes();
+                while (children.hasNext()) {
+                    pending.push(children.nextNode());
+                }
+            }
+        } finally {
+            session.logout();
+        }
+    }
+
+    /**
+     * Content replicated to another instance: add the paths to the filter and
+     * drop their negative entries. A replication publishes every node it
+     * imported, so nothing has to be read from the repository and only a
+     * removed subtree needs a scan of the negative cache.
+     */
+    private void onRemoteInvalidation(CacheInvalidation invalidation) {
+        Cache<String, Boolean> negative = negativeCache;
+        if (negative == null) {
+            return;
+        }
+
+        switch (invalidation.getType()) {
+            case PATH:
+            case PATHS:
+                for (String path : invalidation.getPaths()) {
+                    markExists(path);
+                }
+                break;
+            case SUBTREE:
+                String root = invalidation.getArgument();
+                negative.asMap().keySet().removeIf(key -> isUnder(key, root));
+                break;
+            case CLEAR:
+                negative.invalidateAll();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static boolean isUnder(String path, String root) {
+        return path.equals(root) || path.startsWith(root.endsWith("/") ? root : root + "/");
+    }
+
+    private static String parentOf(String path) {
+        int slash = path.lastIndexOf('/');
+        return slash > 0 ? path.substring(0, slash) : "/";
+    }
+}
@@ -1,24 +1,76 @@
 package com.aem.oak.publish.content;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import org.osgi.service.component.annotations.*;
 import org.osgi.service.metatype.annotations.AttributeDefinition;
 import org.osgi.service.metatype.annotations.Designate;
 import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import redis.clients.jedis.DefaultJedisClientConfig;
+import redis.clients.jedis.HostAndPort;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.resps.ScanResult;
+import redis.clients.jedis.resps.Tuple;
 
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.util.Base64;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Redis-backed cache service for content delivery on Publish tier.
  * Provides shared caching across all publish instances with TTL-based expiration.
+ *
+ * <p>Frequently read values are also kept in a bounded near cache. It is kept
+ * coherent with server-assisted client-side caching: the subscriber connection
+ * receives Redis' key invalidation messages for everything under the cache
+ * prefix, and the near cache is only used while that stream is live.</p>
+ *
+ * <p>Invalidations from other instances carry the revision they were committed
+ * at and reach listeners only once the local node store has caught up with
+ * it, so nothing re-renders or re-caches the old content in between.</p>
+ *
+ * <p>Redis is an optimization, so it may never hold up a request: every call
+ * has a millisecond deadline, writes are queued to a background executor, and
+ * a circuit breaker makes the service report itself unavailable while Redis
+ * keeps failing. Reads on the request path run on a small executor and are
+ * abandoned at the read timeout. Invalidations are skipped while the circuit
+ * is open rather than left to time out; Redis is then flushed once before it
+ * is read again.
+ * A queued write that an invalidation, local or remote, has overtaken is
+ * dropped, or deleted again if it landed first.</p>
  */
 @Component(service = RedisCacheService.class, immediate = true)
 @Designate(ocd = RedisCacheService.Config.class)
@@ -26,7 +78,20 @@ public class RedisCacheService {
 
     private static final Logger LOG = LoggerFactory.getLogger(RedisCacheService.class);
     private static final String CACHE_PREFIX = "aem:cache:";
-    private static final String CONTENT_TYPE_SUFFIX = ":ct";
+    // Sorted sets scored by member expiry; a new prefix so sets left under idx: never collide by type
+    private static final String INDEX_PREFIX = CACHE_PREFIX + "zidx:";
+    private static final String PATH_INDEX = INDEX_PREFIX + "path:";
+    private static final String TREE_INDEX = INDEX_PREFIX + "tree:";
+    private static final String SUBTREE_INDEX = INDEX_PREFIX + "subtree:";
+    private static final String TAG_INDEX = INDEX_PREFIX + "tag:";
+    private static final int SCAN_BATCH = 500;
+    private static final String INVALIDATION_CHANNEL = "aem:cache:invalidate";
+    private static final long RESUBSCRIBE_DELAY_MS = 1000;
+    private static final String TRACKING_CHANNEL = "__redis__:invalidate";
+    // How often invalidations waiting for a revision check the local head again
+    private static final long REVISION_POLL_MS = 100;
+    // Entry keys only; index sets under zidx: change on every put and are never read locally
+    private static final String TRACKING_PREFIX = CACHE_PREFIX + "/";
 
     @ObjectClassDefinition(name = "AEM Oak Redis Cache Service Configuration")
     public @interface Config {
@@ -49,19 +114,84 @@ public class RedisCacheService {
         int poolSize() default 10;
 
         @AttributeDefinition(name = "Connection Timeout (ms)", description = "Connection timeout in milliseconds")
-        int connectionTimeout() default 2000;
+        int connectionTimeout() default 250;
+
+        @AttributeDefinition(name = "Operation Timeout (ms)", description = "Socket and pool wait timeout for background writes and invalidations")
+        int operationTimeout() default 100;
+
+        @AttributeDefinition(name = "Read Timeout (ms)", description = "Deadline for a read on the request path; slower reads count as misses")
+        int readTimeout() default 20;
+
+        @AttributeDefinition(name = "Circuit Failure Threshold", description = "Consecutive failures after which Redis is skipped")
+        int circuitFailureThreshold() default 5;
+
+        @AttributeDefinition(name = "Circuit Open Time (ms)", description = "How long Redis is skipped before it is tried again")
+        long circuitOpenMs() default 5000;
+
+        @AttributeDefinition(name = "Write Threads", description = "Threads writing entries to Redis in the background")
+        int writeThreads() default 2;
+
+        @AttributeDefinition(name = "Write Queue Size", description = "Pending background writes; further writes are dropped")
+        int writeQueueSize() default 1000;
+
+        @AttributeDefinition(name = "Compression Threshold (bytes)", description = "Values at least this large are stored gzip-compressed (0 = never)")
+        int compressionThreshold() default 1024;
+
+        @AttributeDefinition(name = "Near Cache Enabled", description = "Keep frequently read values locally, invalidated by Redis client tracking (Redis 6+)")
+        boolean nearCacheEnabled() default true;
+
+        @AttributeDefinition(name = "Near Cache Size (bytes)", description = "Maximum size of the entries held in the near cache, plain and gzip bodies together")
+        long nearCacheMaxBytes() default 16777216;
+
+        @AttributeDefinition(name = "Revision Wait (ms)", description = "How long a remote invalidation waits for this instance to see the revision it was committed at")
+        long revisionWaitMs() default 10000;
+
+        @AttributeDefinition(name = "Redelivery Delay (ms)", description = "Remote invalidations without a usable revision are applied again after this delay, once the background read has caught up (0 = never)")
+        long redeliveryDelayMs() default 3000;
     }
 
     private final AtomicLong hits = new AtomicLong(0);
     private final AtomicLong misses = new AtomicLong(0);
     private final AtomicLong evictions = new AtomicLong(0);
+    private final AtomicLong nearHits = new AtomicLong(0);
+    private final AtomicLong droppedWrites = new AtomicLong(0);
+    // Bumped on every tracking invalidation, so reads racing one are not cached
+    private final AtomicLong nearGeneration = new AtomicLong(0);
+    // Bumped on every invalidation, so queued writes it overtook are not applied
+    private final AtomicLong invalidationEpoch = new AtomicLong(0);
+    // Remote invalidations received but not yet delivered to listeners
+    private final AtomicInteger pendingRemote = new AtomicInteger(0);
+    // Set when an invalidation was skipped because the circuit was open
+    private final AtomicBoolean missedInvalidations = new AtomicBoolean(false);
+    private final AtomicBoolean flushing = new AtomicBoolean(false);
+
+    private final String instanceId = UUID.randomUUID().toString();
+    private final List<Consumer<CacheInvalidation>> invalidationListeners = new CopyOnWriteArrayList<>();
+    // Remote invalidations in arrival order; only touched on the invalidation executor
+    private final Deque<PendingInvalidation> pendingInvalidations = new ArrayDeque<>();
+    private boolean pollScheduled;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL)
+    private ContentRevisionService revisionService;
 
     private Config config;
     private JedisPool jedisPool;
+    private CircuitBreaker breaker;
+    private ThreadPoolExecutor readExecutor;
+    private ThreadPoolExecutor writeExecutor;
+    private ScheduledExecutorService invalidationExecutor;
+    private volatile boolean subscribed;
+    private volatile JedisPubSub subscriber;
+    private Thread subscriberThread;
+    private volatile Cache<String, CacheService.CacheEntry> nearCache;
+    private volatile boolean tracking;
+    // Set when the subscription drops; only touched on the subscriber thread
+    private boolean missedBroadcasts;
 
     @Activate
     protected void activate(Config config) {
         this.config = config;
+        this.breaker = new CircuitBreaker(config.circuitFailureThreshold(), config.circuitOpenMs());
 
         if (config.enabled()) {
             try {
@@ -69,19 +199,45 @@ public class RedisCacheService {
                 poolConfig.setMaxTotal(config.poolSize());
                 poolConfig.setMaxIdle(config.poolSize() / 2);
                 poolConfig.setMinIdle(1);
-                poolConfig.setTestOnBorrow(true);
-                poolConfig.setTestOnReturn(true);
-                poolConfig.setMaxWait(Duration.ofMillis(config.connectionTimeout()));
+                // Validate idle connections in the background instead of a PING per borrow and return
+                poolConfig.setTestOnBorrow(false);
+                poolConfig.setTestOnReturn(false);
+                poolConfig.setTestWhileIdle(true);
+                poolConfig.setTimeBetweenEvictionRuns(Duration.ofSeconds(30));
+                poolConfig.setMaxWait(Duration.ofMillis(config.operationTimeout()));
+
+                jedisPool = new JedisPool(poolConfig, new HostAndPort(config.redisHost(), config.redisPort()),
+                        DefaultJedisClientConfig.builder()
+                                .connectionTimeoutMillis(config.connectionTimeout())
+                                .socketTimeoutMillis(config.operationTimeout())
+                                .build());
 
-                jedisPool = new JedisPool(poolConfig, config.redisHost(), config.redisPort(),
-                        config.connectionTimeout());
+                readExecutor = new ThreadPoolExecutor(config.poolSize(), config.poolSize(),
+                        0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(config.poolSize()));
+                writeExecutor = new ThreadPoolExecutor(config.writeThreads(), config.writeThreads(),
+                        0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(config.writeQueueSize()));
 
-                // Test connection
+                // Test connection; an unreachable Redis only opens the circuit
                 try (Jedis jedis = jedisPool.getResource()) {
                     String pong = jedis.ping();
                     LOG.info("Redis cache service activated, host={}:{}, ttl={}s, ping={}",
                             config.redisHost(), config.redisPort(), config.ttlSeconds(), pong);
+                } catch (Exception e) {
+                    LOG.warn("Redis at {}:{} not reachable yet: {}", config.redisHost(), config.redisPort(),
+                            e.getMessage());
+                    onFailure();
+                }
+
+                if (config.nearCacheEnabled()) {
+                    nearCache = Caffeine.newBuilder()
+                            .maximumWeight(config.nearCacheMaxBytes())
+                            .weigher(RedisCacheService::nearWeight)
+                            .expireAfterWrite(Duration.ofSeconds(config.ttlSeconds()))
+                            .build();
                 }
+
+                invalidationExecutor = Executors.newSingleThreadScheduledExecutor();
+                startSubscriber();
             } catch (Exception e) {
                 LOG.error("Failed to connect to Redis at {}:{}", config.redisHost(), config.redisPort(), e);
                 jedisPool = null;
@@ -93,6 +249,39 @@ public class RedisCacheService {
 
     @Deactivate
     protected void deactivate() {
+        stopSubscriber();
+        nearCache = null;
+        if (invalidationExecutor != null) {
+            invalidationExecutor.shutdown();
+            try {
+                if (!invalidationExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                    invalidationExecutor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                invalidationExecutor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            invalidationExecutor = null;
+            pendingInvalidations.clear();
+            pendingRemote.set(0);
+            pollScheduled = false;
+        }
+        if (readExecutor != null) {
+            readExecutor.shutdownNow();
+            readExecutor = null;
+        }
+        if (writeExecutor != null) {
+            writeExecutor.shutdown();
+            try {
+                if (!writeExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                    writeExecutor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                writeExecutor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            writeExecutor = null;
+        }
         if (jedisPool != null) {
             jedisPool.close();
             jedisPool = null;
@@ -107,9 +296,21 @@ public class RedisCacheService {
     }
 
     /**
-     * Check if Redis is available.
+     * Check if Redis is available: configured, connected and not skipped by the circuit breaker.
      */
     public boolean isAvailable() {
+        if (!isConnected() || !breaker.allowRequest()) {
+            return false;
+        }
+        if (missedInvalidations.get()) {
+            // Entries may be stale until the flush has gone through
+            flushMissedInvalidations();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean isConnected() {
         return config.enabled() && jedisPool != null && !jedisPool.isClosed();
     }
 
@@ -123,23 +324,29 @@ public class RedisCacheService {
 
         String key = buildKey(path, selector, extension);
 
-        try (Jedis jedis = jedisPool.getResource()) {
-            String data = jedis.get(key);
-            if (data == null) {
+        CacheService.CacheEntry near = getNear(key);
+        if (near != null) {
+            hits.incrementAndGet();
+            return near;
+        }
+
+        long generation = nearGeneration();
+        try {
+            // Body and metadata travel as one binary value, a single round trip
+            byte[] value = read(jedis -> jedis.get(key.getBytes(StandardCharsets.UTF_8)));
+            onSuccess();
+            CacheService.CacheEntry entry = CacheEntryCodec.decode(value);
+            if (entry == null) {
                 misses.incrementAndGet();
                 return null;
             }
 
-            String contentType = jedis.get(key + CONTENT_TYPE_SUFFIX);
-            if (contentType == null) {
-                contentType = "application/octet-stream";
-            }
-
+            putNear(key, entry, generation);
             hits.incrementAndGet();
-            byte[] decodedData = Base64.getDecoder().decode(data);
-            return new CacheService.CacheEntry(decodedData, contentType);
+            return entry;
 
         } catch (Exception e) {
+            onFailure();
             LOG.warn("Failed to get from Redis cache: {}", key, e);
             misses.incrementAndGet();
             return null;
@@ -147,100 +354,632 @@ public class RedisCacheService {
     }
 
     /**
-     * Put content in cache.
+     * Put content in cache. The entry is encoded on the calling thread, while it
+     * is known to be readable, and written in the background.
      */
     public void put(String path, String selector, String extension, CacheService.CacheEntry entry) {
         if (!isAvailable()) {
             return;
         }
 
-        if (entry.getData().length > config.maxEntrySize()) {
-            LOG.debug("Entry too large for cache: {} bytes", entry.getData().length);
+        if (entry.getLength() > config.maxEntrySize()) {
+            LOG.debug("Entry too large for cache: {} bytes", entry.getLength());
             return;
         }
 
         String key = buildKey(path, selector, extension);
+        byte[] value = CacheEntryCodec.encode(entry, config.compressionThreshold());
+        CacheDependencies dependencies = entry.getDependencies();
 
-        try (Jedis jedis = jedisPool.getResource()) {
-            String encodedData = Base64.getEncoder().encodeToString(entry.getData());
-            jedis.setex(key, config.ttlSeconds(), encodedData);
-            jedis.setex(key + CONTENT_TYPE_SUFFIX, config.ttlSeconds(), entry.getContentType());
+        long epoch = invalidationEpoch.get();
+        submitWrite(epoch, () -> {
+            try (Jedis jedis = jedisPool.getResource()) {
+                // Value and index memberships go out in one pipeline
+                Pipeline pipeline = jedis.pipelined();
+                pipeline.setex(key.getBytes(StandardCharsets.UTF_8), config.ttlSeconds(), value);
+                addToIndexes(pipeline, key, path, dependencies);
+                pipeline.sync();
+                if (isOverrun(epoch)) {
+                    jedis.unlink(key);
+                    droppedWrites.incrementAndGet();
+                }
+                onSuccess();
+
+                LOG.debug("Cached in Redis: {} (size={} bytes)", key, value.length);
+
+            } catch (Exception e) {
+                onFailure();
+                LOG.warn("Failed to put in Redis cache: {}", key, e);
+            }
+        });
+    }
 
-            LOG.debug("Cached in Redis: {} (size={} bytes)", key, entry.getData().length);
+    /**
+     * Get cached content for several paths sharing a selector and extension
+     * with a single MGET.
+     *
+     * @return the entries found, keyed by path
+     */
+    public Map<String, CacheService.CacheEntry> getAll(Collection<String> paths, String selector, String extension) {
+        Map<String, CacheService.CacheEntry> found = new HashMap<>();
+        if (!isAvailable() || paths.isEmpty()) {
+            return found;
+        }
 
+        List<String> ordered = new ArrayList<>();
+        List<String> orderedKeys = new ArrayList<>();
+        for (String path : paths) {
+            String key = buildKey(path, selector, extension);
+            CacheService.CacheEntry entry = getNear(key);
+            if (entry != null) {
+                found.put(path, entry);
+            } else {
+                ordered.add(path);
+                orderedKeys.add(key);
+            }
+        }
+        hits.addAndGet(found.size());
+        if (ordered.isEmpty()) {
+            return found;
+        }
+
+        byte[][] keys = new byte[ordered.size()][];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = orderedKeys.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+
+        long generation = nearGeneration();
+        try {
+            List<byte[]> values = read(jedis -> jedis.mget(keys));
+            onSuccess();
+            int fetched = 0;
+            for (int i = 0; i < values.size(); i++) {
+                CacheService.CacheEntry entry = CacheEntryCodec.decode(values.get(i));
+                if (entry != null) {
+                    found.put(ordered.get(i), entry);
+                    putNear(orderedKeys.get(i), entry, generation);
+                    fetched++;
+                }
+            }
+            hits.addAndGet(fetched);
+            misses.addAndGet(keys.length - fetched);
         } catch (Exception e) {
-            LOG.warn("Failed to put in Redis cache: {}", key, e);
+            onFailure();
+            LOG.warn("Failed to get {} entries from Redis cache", keys.length, e);
+            misses.addAndGet(keys.length);
         }
+        return found;
     }
 
     /**
-     * Invalidate cache entry for a specific path.
+     * Put several entries sharing a selector and extension in one background
+     * pipeline, values, TTLs and index sets included.
      */
-    public void invalidate(String path) {
-        if (!isAvailable()) {
+    public void putAll(Map<String, CacheService.CacheEntry> entries, String selector, String extension) {
+        if (!isAvailable() || entries.isEmpty()) {
+            return;
+        }
+
+        Map<String, byte[]> values = new HashMap<>();
+        Map<String, CacheDependencies> dependencies = new HashMap<>();
+        for (Map.Entry<String, CacheService.CacheEntry> entry : entries.entrySet()) {
+            if (entry.getValue().getLength() > config.maxEntrySize()) {
+                continue;
+            }
+            values.put(entry.getKey(), CacheEntryCodec.encode(entry.getValue(), config.compressionThreshold()));
+            dependencies.put(entry.getKey(), entry.getValue().getDependencies());
+        }
+        if (values.isEmpty()) {
+            return;
+        }
+
+        long epoch = invalidationEpoch.get();
+        submitWrite(epoch, () -> {
+            try (Jedis jedis = jedisPool.getResource()) {
+                Pipeline pipeline = jedis.pipelined();
+                List<String> keys = new ArrayList<>(values.size());
+                for (Map.Entry<String, byte[]> value : values.entrySet()) {
+                    String key = buildKey(value.getKey(), selector, extension);
+                    pipeline.setex(key.getBytes(StandardCharsets.UTF_8), config.ttlSeconds(), value.getValue());
+                    addToIndexes(pipeline, key, value.getKey(), dependencies.get(value.getKey()));
+                    keys.add(key);
+                }
+                pipeline.sync();
+                if (isOverrun(epoch)) {
+                    jedis.unlink(keys.toArray(new String[0]));
+                    droppedWrites.addAndGet(keys.size());
+                }
+                onSuccess();
+
+                LOG.debug("Cached {} entries in Redis", values.size());
+
+            } catch (Exception e) {
+                onFailure();
+                LOG.warn("Failed to put {} entries in Redis cache", values.size(), e);
+            }
+        });
+    }
+
+    /**
+     * Queue a write. When the queue is full the write is dropped, the entry
+     * will simply be rendered again by whoever misses it next. So is a write
+     * that an invalidation overtook while it was queued; the write itself
+     * checks again once it has landed.
+     *
+     * @param epoch the invalidation epoch when the entry was handed over
+     */
+    private void submitWrite(long epoch, Runnable write) {
+        ThreadPoolExecutor executor = writeExecutor;
+        if (executor == null) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                if (isOverrun(epoch)) {
+                    droppedWrites.incrementAndGet();
+                    LOG.debug("Invalidated while queued, dropping Redis write");
+                    return;
+                }
+                write.run();
+            });
+        } catch (RejectedExecutionException e) {
+            droppedWrites.incrementAndGet();
+            LOG.debug("Redis write queue full, dropping write");
+        }
+    }
+
+    /**
+     * Whether an invalidation happened since the epoch, or remote ones are
+     * still waiting; entries rendered meanwhile may show the old content.
+     */
+    private boolean isOverrun(long epoch) {
+        return invalidationEpoch.get() != epoch || pendingRemote.get() > 0;
+    }
+
+    /**
+     * Run a read on the read executor and wait for it until the read timeout,
+     * so that neither a slow Redis nor waiting for a pooled connection holds
+     * the request longer. An abandoned read still returns its connection.
+     *
+     * @throws TimeoutException if the read did not finish in time or could not be queued
+     */
+    private <T> T read(Function<Jedis, T> call) throws Exception {
+        ThreadPoolExecutor executor = readExecutor;
+        JedisPool pool = jedisPool;
+        if (executor == null || pool == null) {
+            throw new IllegalStateException("Redis cache service is not active");
+        }
+
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                try (Jedis jedis = pool.getResource()) {
+                    return call.apply(jedis);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            throw new TimeoutException("Too many Redis reads waiting");
+        }
+
+        try {
+            return future.get(config.readTimeout(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw e;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw e;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    /**
+     * Whether an invalidation can be sent now. While the circuit is open it is
+     * skipped instead, and recorded so that Redis is flushed before it is used again.
+     */
+    private boolean canInvalidate() {
+        if (!isConnected()) {
+            return false;
+        }
+        if (breaker.isOpen()) {
+            missedInvalidations.set(true);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * After invalidations were skipped, unlink every entry and tell the other
+     * instances to clear theirs, in the background and once at a time.
+     * An invalidation skipped during the flush sets off another one.
+     */
+    private void flushMissedInvalidations() {
+        ThreadPoolExecutor executor = writeExecutor;
+        if (executor == null || !flushing.compareAndSet(false, true)) {
             return;
         }
+        try {
+            executor.execute(() -> {
+                try {
+                    missedInvalidations.set(false);
+                    invalidationEpoch.incrementAndGet();
+                    onKeyInvalidated(null);
+                    try (Jedis jedis = jedisPool.getResource()) {
+                        long removed = scanAndUnlink(jedis, CACHE_PREFIX + "*");
+                        jedis.publish(INVALIDATION_CHANNEL,
+                                new CacheInvalidation(instanceId, CacheInvalidation.Type.CLEAR, null).encode());
+                        onSuccess();
+                        LOG.info("Flushed {} Redis cache keys after skipping invalidations", removed);
+                    } catch (Exception e) {
+                        missedInvalidations.set(true);
+                        onFailure();
+                        LOG.warn("Failed to flush Redis cache after skipping invalidations", e);
+                    }
+                } finally {
+                    flushing.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            flushing.set(false);
+        }
+    }
+
+    private void onSuccess() {
+        if (breaker.recordSuccess()) {
+            LOG.info("Redis reachable again, L2 cache resumed");
+        }
+    }
+
+    private void onFailure() {
+        if (breaker.recordFailure()) {
+            LOG.warn("Redis failing, skipping L2 cache for {} ms", config.circuitOpenMs());
+        }
+    }
 
-        String pattern = CACHE_PREFIX + path + ":*";
+    /**
+     * Invalidate cache entries for a path: its own renderings, renderings that
+     * include it, and renderings depending on the subtree of an ancestor.
+     */
+    public void invalidate(String path) {
+        invalidationEpoch.incrementAndGet();
+        if (!canInvalidate()) {
+            return;
+        }
 
         try (Jedis jedis = jedisPool.getResource()) {
-            Set<String> keys = jedis.keys(pattern);
-            if (!keys.isEmpty()) {
-                jedis.del(keys.toArray(new String[0]));
-                evictions.addAndGet(keys.size());
-                LOG.debug("Invalidated {} Redis cache entries for: {}", keys.size(), path);
+            long removed = unlinkMembers(jedis, PATH_INDEX + path);
+            for (String ancestor : ancestorsOf(path)) {
+                removed += unlinkMembers(jedis, SUBTREE_INDEX + ancestor);
             }
+            onSuccess();
+            LOG.debug("Invalidated {} Redis cache entries for: {}", removed, path);
         } catch (Exception e) {
+            onFailure();
             LOG.warn("Failed to invalidate Redis cache for: {}", path, e);
         }
     }
 
+    /**
+     * Invalidate cache entries for several paths as {@link #invalidate(String)}
+     * does for each, reading and unlinking their index sets in two round trips.
+     */
+    public void invalidatePaths(Collection<String> paths) {
+        invalidationEpoch.incrementAndGet();
+        if (!canInvalidate()) {
+            return;
+        }
+
+        Set<String> sets = new LinkedHashSet<>();
+        for (String path : paths) {
+            sets.add(PATH_INDEX + path);
+            for (String ancestor : ancestorsOf(path)) {
+                sets.add(SUBTREE_INDEX + ancestor);
+            }
+        }
+        try (Jedis jedis = jedisPool.getResource()) {
+            long removed = unlinkMembers(jedis, sets);
+            onSuccess();
+            LOG.debug("Invalidated {} Redis cache entries for {} paths", removed, paths.size());
+        } catch (Exception e) {
+            onFailure();
+            LOG.warn("Failed to invalidate Redis cache for {} paths", paths.size(), e);
+        }
+    }
+
+    /**
+     * Invalidate cache entries for a path and everything below it.
+     */
+    public void invalidateSubtree(String path) {
+        invalidationEpoch.incrementAndGet();
+        if (!canInvalidate()) {
+            return;
+        }
+
+        invalidate(path);
+        try (Jedis jedis = jedisPool.getResource()) {
+            long removed = unlinkMembers(jedis, TREE_INDEX + path);
+            onSuccess();
+            LOG.debug("Invalidated {} Redis cache entries below: {}", removed, path);
+        } catch (Exception e) {
+            onFailure();
+            LOG.warn("Failed to invalidate Redis cache below: {}", path, e);
+        }
+    }
+
+    /**
+     * Invalidate cache entries that show the given tag.
+     */
+    public void invalidateTag(String tag) {
+        invalidationEpoch.incrementAndGet();
+        if (!canInvalidate()) {
+            return;
+        }
+
+        try (Jedis jedis = jedisPool.getResource()) {
+            long removed = unlinkMembers(jedis, TAG_INDEX + tag);
+            onSuccess();
+            LOG.debug("Invalidated {} Redis cache entries for tag: {}", removed, tag);
+        } catch (Exception e) {
+            onFailure();
+            LOG.warn("Failed to invalidate Redis cache for tag: {}", tag, e);
+        }
+    }
+
     /**
      * Invalidate cache entries matching a path pattern.
+     * Patterns are not indexed, so this walks the keyspace incrementally with SCAN.
      */
     public void invalidatePattern(String pathPattern) {
-        if (!isAvailable()) {
+        invalidationEpoch.incrementAndGet();
+        if (!canInvalidate()) {
             return;
         }
 
-        String redisPattern = CACHE_PREFIX + pathPattern.replace("*", "*") + ":*";
-
         try (Jedis jedis = jedisPool.getResource()) {
-            Set<String> keys = jedis.keys(redisPattern);
-            if (!keys.isEmpty()) {
-                jedis.del(keys.toArray(new String[0]));
-                evictions.addAndGet(keys.size());
-                LOG.debug("Invalidated {} Redis cache entries for pattern: {}", keys.size(), pathPattern);
-            }
+            long removed = scanAndUnlink(jedis, CACHE_PREFIX + escapeGlob(pathPattern) + ":*");
+            onSuccess();
+            LOG.debug("Invalidated {} Redis cache entries for pattern: {}", removed, pathPattern);
         } catch (Exception e) {
+            onFailure();
             LOG.warn("Failed to invalidate Redis cache for pattern: {}", pathPattern, e);
         }
     }
 
     /**
-     * Clear entire cache.
+     * Clear entire cache, including the index sets.
      */
     public void clear() {
-        if (!isAvailable()) {
+        invalidationEpoch.incrementAndGet();
+        if (!canInvalidate()) {
             return;
         }
 
-        String pattern = CACHE_PREFIX + "*";
-
         try (Jedis jedis = jedisPool.getResource()) {
-            Set<String> keys = jedis.keys(pattern);
-            if (!keys.isEmpty()) {
-                jedis.del(keys.toArray(new String[0]));
-                evictions.addAndGet(keys.size());
-                LOG.info("Cleared {} Redis cache entries", keys.size());
-            }
+            long removed = scanAndUnlink(jedis, CACHE_PREFIX + "*");
+            onSuccess();
+            LOG.info("Cleared {} Redis cache keys", removed);
         } catch (Exception e) {
+            onFailure();
             LOG.warn("Failed to clear Redis cache", e);
         }
     }
 
     /**
-     * Get cache statistics.
+     * Decoded entry from the near cache, only while tracking invalidations are flowing.
+     */
+    CacheService.CacheEntry getNear(String key) {
+        Cache<String, CacheService.CacheEntry> near = nearCache;
+        if (near == null || !tracking) {
+            return null;
+        }
+        CacheService.CacheEntry value = near.getIfPresent(key);
+        if (value != null) {
+            nearHits.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Remember a value read from Redis, unless an invalidation arrived since the
+     * read started. Checking again after the put closes the window in which an
+     * invalidation lands between the check and the put.
+     */
+    void putNear(String key, CacheService.CacheEntry value, long generation) {
+        Cache<String, CacheService.CacheEntry> near = nearCache;
+        if (near == null || !tracking || nearGeneration.get() != generation) {
+            return;
+        }
+        near.put(key, value);
+        if (nearGeneration.get() != generation || !tracking) {
+            near.invalidate(key);
+        }
+    }
+
+    /**
+     * Apply a Redis key invalidation; a null key means the server flushed its keyspace.
+     */
+    void onKeyInvalidated(String key) {
+        nearGeneration.incrementAndGet();
+        Cache<String, CacheService.CacheEntry> near = nearCache;
+        if (near == null) {
+            return;
+        }
+        if (key == null) {
+            near.invalidateAll();
+        } else {
+            near.invalidate(key);
+        }
+    }
+
+    /**
+     * Count of key invalidations seen, sampled before a Redis read and passed to
+     * {@link #putNear}.
+     */
+    long nearGeneration() {
+        return nearGeneration.get();
+    }
+
+    /**
+     * Whether tracking invalidations are flowing, i.e. the near cache is in use.
+     */
+    boolean isTracking() {
+        return tracking;
+    }
+
+    private static int nearWeight(String key, CacheService.CacheEntry entry) {
+        long weight = 2L * key.length() + entry.getLength()
+                + (entry.getGzipData() != null ? entry.getGzipData().length : 0);
+        return (int) Math.min(Integer.MAX_VALUE, weight);
+    }
+
+    /**
+     * Record a key in the sets of its own path, its ancestors' trees, its
+     * dependency paths and its tags. Members are scored by the time their key
+     * expires, so each write also drops the members that have gone, and sets
+     * of hot paths stay as large as their live keys. Sets expire with the
+     * newest member.
+     */
+    private void addToIndexes(Pipeline pipeline, String key, String path, CacheDependencies dependencies) {
+        List<String> sets = new ArrayList<>();
+        sets.add(PATH_INDEX + path);
+        sets.add(TREE_INDEX + path);
+        for (String ancestor : ancestorsOf(path)) {
+            sets.add(TREE_INDEX + ancestor);
+        }
+
+        if (dependencies != null) {
+            for (String dependency : dependencies.getPaths()) {
+                if (!dependency.equals(path)) {
+                    sets.add(PATH_INDEX + dependency);
+                }
+            }
+            if (dependencies.isSubtree()) {
+                sets.add(SUBTREE_INDEX + path);
+            }
+            for (String tag : dependencies.getTags()) {
+                sets.add(TAG_INDEX + tag);
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        double expiry = now + config.ttlSeconds() * 1000L;
+        for (String set : sets) {
+            pipeline.zadd(set, expiry, key);
+            pipeline.zremrangeByScore(set, Double.NEGATIVE_INFINITY, now);
+            pipeline.expire(set, config.ttlSeconds());
+        }
+    }
+
+    /**
+     * Unlink every live key listed in an index set, then the set itself.
+     * Members are read with ZSCAN so large sets never block the server, and
+     * those whose keys have already expired are skipped.
+     */
+    private long unlinkMembers(Jedis jedis, String set) {
+        long removed = 0;
+        long now = System.currentTimeMillis();
+        String cursor = ScanParams.SCAN_POINTER_START;
+        ScanParams params = new ScanParams().count(SCAN_BATCH);
+        do {
+            ScanResult<Tuple> page = jedis.zscan(set, cursor, params);
+            List<String> keys = new ArrayList<>(page.getResult().size());
+            for (Tuple member : page.getResult()) {
+                if (member.getScore() > now) {
+                    keys.add(member.getElement());
+                }
+            }
+            if (!keys.isEmpty()) {
+                removed += jedis.unlink(keys.toArray(new String[0]));
+            }
+            cursor = page.getCursor();
+        } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+
+        jedis.unlink(set);
+        evictions.addAndGet(removed);
+        return removed;
+    }
+
+    /**
+     * Unlink the live keys listed in several index sets, then the sets, in one
+     * pipeline to read and one to unlink. Unlike {@link #unlinkMembers(Jedis, String)}
+     * each set is read whole, which suits the per-path sets of a replication.
+     */
+    private long unlinkMembers(Jedis jedis, Collection<String> sets) {
+        long now = System.currentTimeMillis();
+        List<Response<List<String>>> members = new ArrayList<>(sets.size());
+        Pipeline pipeline = jedis.pipelined();
+        for (String set : sets) {
+            members.add(pipeline.zrangeByScore(set, "(" + now, "+inf"));
+        }
+        pipeline.sync();
+
+        Set<String> keys = new LinkedHashSet<>();
+        for (Response<List<String>> response : members) {
+            keys.addAll(response.get());
+        }
+        pipeline = jedis.pipelined();
+        Response<Long> removed = keys.isEmpty() ? null : pipeline.unlink(keys.toArray(new String[0]));
+        pipeline.unlink(sets.toArray(new String[0]));
+        pipeline.sync();
+
+        long count = removed != null ? removed.get() : 0;
+        evictions.addAndGet(count);
+        return count;
+    }
+
+    /**
+     * Incrementally SCAN the keyspace and UNLINK matching keys in batches.
+     */
+    private long scanAndUnlink(Jedis jedis, String match) {
+        long removed = 0;
+        String cursor = ScanParams.SCAN_POINTER_START;
+        ScanParams params = new ScanParams().match(match).count(SCAN_BATCH);
+        do {
+            ScanResult<String> page = jedis.scan(cursor, params);
+            List<String> keys = page.getResult();
+            if (!keys.isEmpty()) {
+                removed += jedis.unlink(keys.toArray(new String[0]));
+            }
+            cursor = page.getCursor();
+        } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+
+        evictions.addAndGet(removed);
+        return removed;
+    }
+
+    /**
+     * Proper ancestors of a path, nearest first, excluding the root.
+     */
+    private static List<String> ancestorsOf(String path) {
+        List<String> ancestors = new ArrayList<>();
+        int slash = path.lastIndexOf('/');
+        while (slash > 0) {
+            path = path.substring(0, slash);
+            ancestors.add(path);
+            slash = path.lastIndexOf('/');
+        }
+        return ancestors;
+    }
+
+    /**
+     * Escape Redis glob characters other than {@code *}.
+     */
+    private static String escapeGlob(String pattern) {
+        StringBuilder sb = new StringBuilder(pattern.length());
+        for (char c : pattern.toCharArray()) {
+            if (c == '?' || c == '[' || c == ']' || c == '\\') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Get cache statistics. Sizes come from DBSIZE and INFO, which are O(1) on the
+     * server; entries is the database key count and includes the index sets.
      */
     public CacheStats getStats() {
         long totalHits = hits.get();
@@ -253,12 +992,10 @@ public class RedisCacheService {
 
         if (isAvailable()) {
             try (Jedis jedis = jedisPool.getResource()) {
-                Set<String> keys = jedis.keys(CACHE_PREFIX + "*");
-                // Count only data keys, not content-type keys
-                entries = (int) keys.stream()
-                        .filter(k -> !k.endsWith(CONTENT_TYPE_SUFFIX))
-                        .count();
+                entries = (int) Math.min(jedis.dbSize(), Integer.MAX_VALUE);
+                totalSize = parseInfoField(jedis.info("memory"), "used_memory");
             } catch (Exception e) {
+                onFailure();
                 LOG.warn("Failed to get Redis cache stats", e);
             }
         }
@@ -270,16 +1007,284 @@ public class RedisCacheService {
                 totalHits,
                 totalMisses,
                 evictions.get(),
-                hitRate
+                hitRate,
+                nearHits.get(),
+                droppedWrites.get()
         );
     }
 
+    /**
+     * Publish an invalidation to the other publish instances, stamped with the
+     * local head revision so they can wait until they see the change.
+     */
+    public void publish(CacheInvalidation.Type type, String argument) {
+        if (!canInvalidate()) {
+            return;
+        }
+
+        ContentRevisionService revisions = revisionService;
+        CacheInvalidation invalidation = new CacheInvalidation(instanceId, type, argument,
+                revisions != null ? revisions.getHeadRevision() : null);
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.publish(INVALIDATION_CHANNEL, invalidation.encode());
+            onSuccess();
+        } catch (Exception e) {
+            onFailure();
+            LOG.warn("Failed to publish cache invalidation {} {}", type, argument, e);
+        }
+    }
+
+    /**
+     * Receive invalidations published by other instances. Own messages are not delivered.
+     */
+    public void addInvalidationListener(Consumer<CacheInvalidation> listener) {
+        invalidationListeners.add(listener);
+    }
+
+    public void removeInvalidationListener(Consumer<CacheInvalidation> listener) {
+        invalidationListeners.remove(listener);
+    }
+
+    private void startSubscriber() {
+        subscribed = true;
+        subscriberThread = new Thread(this::runSubscriber, "redis-cache-invalidation");
+        subscriberThread.setDaemon(true);
+        subscriberThread.start();
+    }
+
+    private void stopSubscriber() {
+        subscribed = false;
+        JedisPubSub current = subscriber;
+        if (current != null && current.isSubscribed()) {
+            current.unsubscribe();
+        }
+        if (subscriberThread != null) {
+            subscriberThread.interrupt();
+            try {
+                subscriberThread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            subscriberThread = null;
+        }
+    }
+
+    /**
+     * Subscription loop on a dedicated connection, reconnecting after failures.
+     * With the near cache enabled, a second connection turns on broadcast client
+     * tracking redirected to the subscriber, which then also receives key
+     * invalidations on {@code __redis__:invalidate}.
+     *
+     * <p>Broadcasts sent while the subscription was down are lost, so once it is
+     * back listeners receive a local {@link CacheInvalidation.Type#CLEAR}.</p>
+     */
+    private void runSubscriber() {
+        while (subscribed) {
+            Jedis tracker = null;
+            // No read timeout, the connection is idle between invalidations
+            try (Jedis jedis = new Jedis(config.redisHost(), config.redisPort(), config.connectionTimeout(), 0)) {
+                if (nearCache != null) {
+                    tracker = startTracking(jedis.clientId());
+                }
+                subscriber = new JedisPubSub() {
+                    @Override
+                    public void onSubscribe(String channel, int subscribedChannels) {
+                        if (TRACKING_CHANNEL.equals(channel)) {
+                            tracking = true;
+                        } else if (missedBroadcasts) {
+                            missedBroadcasts = false;
+                            resync();
+                        }
+                    }
+
+                    @Override
+                    public void onMessage(String channel, String message) {
+                        if (TRACKING_CHANNEL.equals(channel)) {
+                            onKeyInvalidated(message);
+                        } else {
+                            dispatch(message);
+                        }
+                    }
+                };
+                if (tracker != null) {
+                    jedis.subscribe(subscriber, INVALIDATION_CHANNEL, TRACKING_CHANNEL);
+                } else {
+                    jedis.subscribe(subscriber, INVALIDATION_CHANNEL);
+                }
+            } catch (Exception e) {
+                if (subscribed) {
+                    LOG.warn("Redis invalidation subscription lost, retrying: {}", e.getMessage());
+                }
+            } finally {
+                // Invalidations may be missed until tracking is re-established
+                missedBroadcasts = true;
+                tracking = false;
+                onKeyInvalidated(null);
+                if (tracker != null) {
+                    tracker.close();
+                }
+            }
+
+            if (subscribed) {
+                try {
+                    Thread.sleep(RESUBSCRIBE_DELAY_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Open the connection that holds the tracking state. Tracking lasts as long
+     * as this connection, so it is kept open alongside the subscription.
+     *
+     * @return the tracking connection, or null if the server does not support tracking
+     */
+    private Jedis startTracking(long redirectClientId) {
+        Jedis tracker = new Jedis(config.redisHost(), config.redisPort(), config.connectionTimeout());
+        try {
+            tracker.sendCommand(Protocol.Command.CLIENT, "TRACKING", "ON",
+                    "REDIRECT", Long.toString(redirectClientId), "BCAST", "PREFIX", TRACKING_PREFIX);
+            return tracker;
+        } catch (Exception e) {
+            LOG.warn("Redis client tracking unavailable, near cache disabled: {}", e.getMessage());
+            tracker.close();
+            nearCache = null;
+            return null;
+        }
+    }
+
+    private void dispatch(String message) {
+        CacheInvalidation invalidation = CacheInvalidation.decode(message);
+        ScheduledExecutorService executor = invalidationExecutor;
+        if (invalidation == null || instanceId.equals(invalidation.getOrigin()) || executor == null) {
+            return;
+        }
+
+        // Entries rendered from here on may be older than the change
+        invalidationEpoch.incrementAndGet();
+        pendingRemote.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                pendingInvalidations.add(new PendingInvalidation(invalidation,
+                        System.currentTimeMillis() + config.revisionWaitMs()));
+                if (!pollScheduled) {
+                    deliverPending();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingRemote.decrementAndGet();
+            LOG.debug("Shutting down, dropped invalidation {} {}", invalidation.getType(), invalidation.getArgument());
+        }
+    }
+
+    /**
+     * Deliver waiting invalidations in arrival order, each once its revision is
+     * visible here or its wait has run out. Those that cannot be checked are
+     * delivered now and again after the redelivery delay.
+     */
+    private void deliverPending() {
+        ContentRevisionService revisions = revisionService;
+        while (!pendingInvalidations.isEmpty()) {
+            PendingInvalidation next = pendingInvalidations.peek();
+            String revision = next.invalidation.getRevision();
+            boolean checked = revision != null && revisions != null && revisions.isAvailable();
+
+            if (checked && !revisions.isVisible(revision)) {
+                if (System.currentTimeMillis() < next.deadline) {
+                    schedulePoll();
+                    return;
+                }
+                LOG.warn("Revision {} not visible after {} ms, applying invalidation {} {} anyway",
+                        revision, config.revisionWaitMs(), next.invalidation.getType(), next.invalidation.getArgument());
+            }
+
+            pendingInvalidations.poll();
+            pendingRemote.decrementAndGet();
+            deliver(next.invalidation);
+            if (!checked && config.redeliveryDelayMs() > 0) {
+                try {
+                    invalidationExecutor.schedule(() -> deliver(next.invalidation),
+                            config.redeliveryDelayMs(), TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void schedulePoll() {
+        try {
+            invalidationExecutor.schedule(() -> {
+                pollScheduled = false;
+                deliverPending();
+            }, REVISION_POLL_MS, TimeUnit.MILLISECONDS);
+            pollScheduled = true;
+        } catch (RejectedExecutionException e) {
+            pendingRemote.addAndGet(-pendingInvalidations.size());
+            pendingInvalidations.clear();
+        }
+    }
+
+    /**
+     * Tell listeners that broadcasts may have been missed.
+     */
+    private void resync() {
+        ScheduledExecutorService executor = invalidationExecutor;
+        if (executor == null) {
+            return;
+        }
+        LOG.info("Redis invalidation subscription restored, clearing local state that may have missed broadcasts");
+        try {
+            executor.execute(() -> deliver(new CacheInvalidation(instanceId, CacheInvalidation.Type.CLEAR, null)));
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Shutting down, skipped resync");
+        }
+    }
+
+    private void deliver(CacheInvalidation invalidation) {
+        invalidationEpoch.incrementAndGet();
+        for (Consumer<CacheInvalidation> listener : invalidationListeners) {
+            try {
+                listener.accept(invalidation);
+            } catch (RuntimeException e) {
+                LOG.warn("Cache invalidation listener failed for {} {}",
+                        invalidation.getType(), invalidation.getArgument(), e);
+            }
+        }
+    }
+
+    private static long parseInfoField(String info, String field) {
+        String prefix = field + ":";
+        for (String line : info.split("\r?\n")) {
+            if (line.startsWith(prefix)) {
+                try {
+                    return Long.parseLong(line.substring(prefix.length()).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
     private String buildKey(String path, String selector, String extension) {
         return CACHE_PREFIX + path + ":" +
                 (selector != null ? selector : "") + ":" +
                 (extension != null ? extension : "");
     }
 
+    private static final class PendingInvalidation {
+        private final CacheInvalidation invalidation;
+        private final long deadline;
+
+        private PendingInvalidation(CacheInvalidation invalidation, long deadline) {
+            this.invalidation = invalidation;
+            this.deadline = deadline;
+        }
+    }
+
     /**
      * Cache statistics.
      */
@@ -291,9 +1296,12 @@ public class RedisCacheService {
         private final long misses;
         private final long evictions;
         private final double hitRate;
+        private final long nearHits;
+        private final long droppedWrites;
 
         public CacheStats(int entries, int maxEntries, long totalSize,
-                         long hits, long misses, long evictions, double hitRate) {
+                         long hits, long misses, long evictions, double hitRate, long nearHits,
+                         long droppedWrites) {
             this.entries = entries;
             this.maxEntries = maxEntries;
             this.totalSize = totalSize;
@@ -301,6 +1309,8 @@ public class RedisCacheService {
             this.misses = misses;
             this.evictions = evictions;
             this.hitRate = hitRate;
+            this.nearHits = nearHits;
+            this.droppedWrites = droppedWrites;
         }
 
         public int getEntries() { return entries; }
@@ -310,5 +1320,7 @@ public class RedisCacheService {
         public long getMisses() { return misses; }
         public long getEvictions() { return evictions; }
         public double getHitRate() { return hitRate; }
+        public long getNearHits() { return nearHits; }
+        public long getDroppedWrites() { return droppedWrites; }
     }
 }
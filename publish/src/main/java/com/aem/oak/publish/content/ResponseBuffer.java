@@ -0,0 +1,108 @@
+package com.aem.oak.publish.content;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Per-thread reusable buffer that records a response body while it is streamed.
+ * Recording stops once the configured limit is exceeded, so oversized
+ * responses never grow the buffer beyond what the cache would accept.
+ */
+public final class ResponseBuffer extends OutputStream {
+
+    private static final int INITIAL_CAPACITY = 8192;
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private static final ThreadLocal<ResponseBuffer> POOL = ThreadLocal.withInitial(ResponseBuffer::new);
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int count;
+    private int limit;
+    private boolean overflowed;
+    private boolean inUse;
+
+    private ResponseBuffer() {
+    }
+
+    /**
+     * Borrow the calling thread's buffer, reset and capped at {@code limit} bytes.
+     * A nested acquire on the same thread gets a private, unpooled buffer.
+     */
+    public static ResponseBuffer acquire(int limit) {
+        ResponseBuffer pooled = POOL.get();
+        ResponseBuffer result = pooled.inUse ? new ResponseBuffer() : pooled;
+        result.inUse = true;
+        result.count = 0;
+        result.limit = limit;
+        result.overflowed = false;
+        return result;
+    }
+
+    /**
+     * Return the buffer to the pool. Oversized backing arrays are dropped
+     * so a single large response does not pin memory on the thread.
+     */
+    public void release() {
+        inUse = false;
+        count = 0;
+        if (buffer.length > MAX_RETAINED_CAPACITY) {
+            buffer = new byte[INITIAL_CAPACITY];
+        }
+    }
+
+    @Override
+    public void write(int b) {
+        if (!reserve(1)) {
+            return;
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        if (!reserve(len)) {
+            return;
+        }
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    private boolean reserve(int len) {
+        if (overflowed) {
+            return false;
+        }
+        if (count + len > limit) {
+            overflowed = true;
+            return false;
+        }
+        if (count + len > buffer.length) {
+            int newCapacity = Math.max(buffer.length << 1, count + len);
+            buffer = Arrays.copyOf(buffer, Math.min(newCapacity, Math.max(limit, count + len)));
+        }
+        return true;
+    }
+
+    /**
+     * Whether the recorded body exceeded the limit and is incomplete.
+     */
+    public boolean isOverflowed() {
+        return overflowed;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Copy of the recorded body, sized exactly to the output.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, count);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Buffer lifecycle is managed through release()
+    }
+}
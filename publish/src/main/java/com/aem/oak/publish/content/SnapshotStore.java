@@ -0,0 +1,599 @@
+package com.aem.oak.publish.content;
+
+import org.apache.commons.io.output.TeeOutputStream;
+import org.apache.jackrabbit.oak.plugins.document.RevisionVector;
+import org.osgi.service.component.annotations.*;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.*;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * On-disk store of pre-rendered JSON snapshots for the Publish tier.
+ * Snapshots are rendered by the replication receiver right after content is
+ * imported, stored both as identity and gzip files, and served by the delivery
+ * servlet without a repository login.
+ *
+ * <p>The store is local to the pod. Other instances learn about replicated
+ * paths through the Redis invalidation broadcast and re-render their own
+ * snapshots, so it should only be enabled together with the Redis cache.</p>
+ *
+ * <p>Broadcasts can be missed, so each file starts with a header line holding
+ * its ETag, Last-Modified and the subtree revision it was rendered at. A
+ * snapshot is only served while that revision is still current, and one
+ * open reads body and validators together. Without a node store to compare
+ * against, the store is purged on activation and after a lost subscription
+ * instead.</p>
+ */
+@Component(service = SnapshotStore.class, immediate = true)
+@Designate(ocd = SnapshotStore.Config.class)
+public class SnapshotStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SnapshotStore.class);
+
+    // Brackets are not allowed in JCR names, so this never collides with a child node
+    private static final String SNAPSHOT_DIR = "[snapshot]";
+    private static final String DEFAULT_VARIANT = "_";
+    private static final String JSON_SUFFIX = ".json";
+    private static final String GZIP_SUFFIX = ".json.gz";
+    // Header line: magic, ETag, Last-Modified, subtree revision ("-" if unknown)
+    private static final String HEADER_MAGIC = "SNAP1";
+    private static final String NO_REVISION = "-";
+    private static final int MAX_HEADER_SIZE = 1024;
+    // How long remote refreshes are batched, so one replication renders once
+    private static final long REMOTE_REFRESH_DELAY_MS = 200;
+
+    @ObjectClassDefinition(name = "AEM Oak Snapshot Store Configuration")
+    public @interface Config {
+        @AttributeDefinition(name = "Enabled", description = "Pre-render JSON snapshots at replication time")
+        boolean enabled() default false;
+
+        @AttributeDefinition(name = "Directory", description = "Local directory holding rendered snapshots")
+        String directory() default "/tmp/aem-snapshots";
+
+        @AttributeDefinition(name = "Selectors", description = "Selector variants to pre-render (empty = plain request)")
+        String[] selectors() default {"", "1"};
+    }
+
+    @Reference
+    private Repository repository;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL)
+    private RedisCacheService redisCacheService;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL)
+    private ContentRevisionService revisionService;
+
+    @Reference
+    private ContentRendererService rendererService;
+
+    private final Consumer<CacheInvalidation> remoteInvalidationListener = this::onRemoteInvalidation;
+    // Paths replicated elsewhere waiting for the next batched refresh
+    private final Set<String> pendingChanged = ConcurrentHashMap.newKeySet();
+    private final Set<String> pendingRemoved = ConcurrentHashMap.newKeySet();
+
+    private Config config;
+    private ScheduledExecutorService refreshExecutor;
+    private Path root;
+    private JsonContentRenderer renderer;
+
+    @Activate
+    @Modified
+    protected void activate(Config config) {
+        this.config = config;
+        this.renderer = rendererService.getRenderer();
+        this.root = Paths.get(config.directory()).toAbsolutePath().normalize();
+
+        if (config.enabled()) {
+            if (refreshExecutor == null) {
+                // Rendering must not hold up the shared invalidation subscriber thread
+                refreshExecutor = Executors.newSingleThreadScheduledExecutor();
+                if (redisCacheService != null) {
+                    redisCacheService.addInvalidationListener(remoteInvalidationListener);
+                }
+            }
+            if (!canValidate()) {
+                // Broadcasts may have been missed while inactive, and nothing would tell
+                purge();
+            }
+            try {
+                Files.createDirectories(root);
+                LOG.info("Snapshot store activated, directory={}, selectors={}",
+                        root, String.join(",", config.selectors()));
+            } catch (IOException e) {
+                LOG.error("Failed to create snapshot directory {}", root, e);
+            }
+        } else {
+            LOG.info("Snapshot store is disabled");
+        }
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        if (redisCacheService != null) {
+            redisCacheService.removeInvalidationListener(remoteInvalidationListener);
+        }
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdown();
+            try {
+                if (!refreshExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                    refreshExecutor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                refreshExecutor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            refreshExecutor = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return config.enabled();
+    }
+
+    /**
+     * Open the snapshot for a request, preferring the gzip file when accepted.
+     * A snapshot rendered at an older revision than the local node store shows
+     * is not returned, and is re-rendered in the background.
+     *
+     * @return the open snapshot, or null if none is current
+     */
+    public Snapshot open(String path, String selector, boolean acceptGzip) {
+        if (!config.enabled()) {
+            return null;
+        }
+
+        Path dir = snapshotDir(path);
+        if (dir == null) {
+            return null;
+        }
+
+        String current = null;
+        if (canValidate()) {
+            RevisionVector revision = revisionService.getSubtreeRevision(path);
+            if (revision == null) {
+                // Gone here, let the repository answer
+                return null;
+            }
+            current = revision.toString();
+        }
+
+        String variant = variantName(selector);
+        Snapshot snapshot = acceptGzip ? openFile(dir.resolve(variant + GZIP_SUFFIX), true) : null;
+        if (snapshot == null) {
+            snapshot = openFile(dir.resolve(variant + JSON_SUFFIX), false);
+        }
+        if (snapshot != null && current != null && !current.equals(snapshot.revision)) {
+            closeQuietly(snapshot);
+            queueRefresh(path, pendingChanged);
+            return null;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Re-render snapshots for a replicated path and for every ancestor whose
+     * rendering includes it and already has snapshots.
+     */
+    public void refresh(String path) {
+        refresh(List.of(path), List.of());
+    }
+
+    /**
+     * Drop snapshots for a removed subtree and refresh ancestors that rendered it.
+     */
+    public void remove(String path) {
+        refresh(List.of(), List.of(path));
+    }
+
+    /**
+     * Apply one replication: drop the snapshots of removed subtrees, then render
+     * every changed or removed path that still exists and either has snapshots
+     * or is not below another path of the batch, and refresh the ancestors with
+     * snapshots once each. A replication reports each of its nodes, so nested
+     * paths only re-render snapshots that already exist.
+     */
+    public void refresh(Collection<String> changed, Collection<String> removed) {
+        if (!config.enabled()) {
+            return;
+        }
+
+        removed.forEach(this::deleteSnapshots);
+
+        Set<String> paths = new LinkedHashSet<>(changed);
+        paths.addAll(removed);
+        Set<String> rendered = new HashSet<>();
+        Session session = null;
+        try {
+            // Render as anonymous so snapshots never expose restricted content
+            session = repository.login(new SimpleCredentials("anonymous", "".toCharArray()));
+
+            for (String path : paths) {
+                if ((hasSnapshots(path) || !isNested(path, paths)) && session.nodeExists(path)
+                        && rendered.add(path)) {
+                    renderAll(session.getNode(path));
+                }
+            }
+            for (String path : paths) {
+                refreshAncestors(session, path, rendered);
+            }
+
+        } catch (RepositoryException | IOException e) {
+            LOG.warn("Failed to render snapshots for {}", paths, e);
+        } finally {
+            if (session != null) {
+                session.logout();
+            }
+        }
+    }
+
+    private boolean hasSnapshots(String path) {
+        Path dir = snapshotDir(path);
+        return dir != null && Files.isDirectory(dir);
+    }
+
+    private static boolean isNested(String path, Collection<String> paths) {
+        for (String other : paths) {
+            if (path.startsWith(other + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void deleteSnapshots(String path) {
+        Path dir = nodeDir(path);
+        if (dir != null && Files.exists(dir)) {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(this::deleteQuietly);
+            } catch (IOException e) {
+                LOG.warn("Failed to delete snapshots under {}", path, e);
+            }
+        }
+    }
+
+    /**
+     * Re-render snapshots for content replicated through another instance.
+     * A replication invalidates each of its nodes separately, so the paths are
+     * collected for a moment and applied as one batch. A clear, which is also
+     * delivered after the subscription was lost, purges snapshots that could
+     * not be checked otherwise.
+     */
+    private void onRemoteInvalidation(CacheInvalidation invalidation) {
+        switch (invalidation.getType()) {
+            case PATH:
+            case PATHS:
+                for (String path : invalidation.getPaths()) {
+                    queueRefresh(path, pendingChanged);
+                }
+                break;
+            case SUBTREE:
+                queueRefresh(invalidation.getArgument(), pendingRemoved);
+                break;
+            case CLEAR:
+                if (!canValidate()) {
+                    purge();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void queueRefresh(String path, Set<String> pending) {
+        ScheduledExecutorService executor = refreshExecutor;
+        // Paths added after the first drain of a batch are picked up by their own
+        if (executor == null || !pending.add(path)) {
+            return;
+        }
+        try {
+            executor.schedule(this::refreshPending, REMOTE_REFRESH_DELAY_MS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Snapshot store shutting down, skipped refresh of {}", path);
+        }
+    }
+
+    private boolean canValidate() {
+        ContentRevisionService revisions = revisionService;
+        return revisions != null && revisions.isAvailable();
+    }
+
+    /**
+     * Drop every snapshot. The directory is moved aside in one rename, so
+     * nothing old is served while the files are deleted in the background.
+     */
+    private void purge() {
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        Path trash = root.resolveSibling(root.getFileName() + ".purge-" + System.nanoTime());
+        try {
+            Files.move(root, trash, StandardCopyOption.ATOMIC_MOVE);
+            Files.createDirectories(root);
+        } catch (IOException e) {
+            LOG.warn("Failed to purge snapshot store {}", root, e);
+            return;
+        }
+        LOG.info("Purged snapshot store {}", root);
+
+        Runnable delete = () -> {
+            try (Stream<Path> files = Files.walk(trash)) {
+                files.sorted(Comparator.reverseOrder()).forEach(this::deleteQuietly);
+            } catch (IOException e) {
+                LOG.warn("Failed to delete purged snapshots under {}", trash, e);
+            }
+        };
+        ScheduledExecutorService executor = refreshExecutor;
+        try {
+            if (executor != null) {
+                executor.execute(delete);
+                return;
+            }
+        } catch (RejectedExecutionException e) {
+            // Shutting down, delete inline
+        }
+        delete.run();
+    }
+
+    private void refreshPending() {
+        List<String> changed = new ArrayList<>(pendingChanged);
+        pendingChanged.removeAll(changed);
+        List<String> removed = new ArrayList<>(pendingRemoved);
+        pendingRemoved.removeAll(removed);
+        if (!changed.isEmpty() || !removed.isEmpty()) {
+            refresh(changed, removed);
+        }
+    }
+
+    private void refreshAncestors(Session session, String path, Set<String> rendered)
+            throws RepositoryException, IOException {
+        String current = path;
+        for (int level = 0; level < renderer.getMaxDepth(); level++) {
+            int slash = current.lastIndexOf('/');
+            if (slash <= 0) {
+                return;
+            }
+            current = current.substring(0, slash);
+
+            if (hasSnapshots(current) && session.nodeExists(current) && rendered.add(current)) {
+                renderAll(session.getNode(current));
+            }
+        }
+    }
+
+    private void renderAll(Node node) throws RepositoryException, IOException {
+        if (isBinaryNode(node)) {
+            return;
+        }
+
+        Path dir = snapshotDir(node.getPath());
+        if (dir == null) {
+            return;
+        }
+        Files.createDirectories(dir);
+
+        for (String selector : config.selectors()) {
+            String variant = variantName(selector);
+            // Revision and validators first, so neither is ever newer than the body
+            RevisionVector revision = revisionService != null
+                    ? revisionService.getSubtreeRevision(node.getPath())
+                    : null;
+            JsonContentRenderer.Validators validators = renderer.validators(node, selector);
+            byte[] header = (HEADER_MAGIC + ' ' + validators.getETag() + ' ' + validators.getLastModified()
+                    + ' ' + (revision != null ? revision.toString() : NO_REVISION) + '\n')
+                    .getBytes(StandardCharsets.US_ASCII);
+            render(node, selector, header, dir.resolve(variant + JSON_SUFFIX), dir.resolve(variant + GZIP_SUFFIX));
+        }
+        LOG.debug("Rendered snapshots for {}", node.getPath());
+    }
+
+    /**
+     * Render both codings, each file starting with the same header, so any one
+     * open sees a body and the validators it was rendered with.
+     */
+    private void render(Node node, String selector, byte[] header, Path jsonFile, Path gzipFile)
+            throws RepositoryException, IOException {
+
+        Path jsonTemp = Files.createTempFile(jsonFile.getParent(), ".render", ".tmp");
+        Path gzipTemp = Files.createTempFile(gzipFile.getParent(), ".render", ".tmp");
+        try {
+            try (OutputStream json = new BufferedOutputStream(Files.newOutputStream(jsonTemp));
+                 OutputStream gzipFileOut = new BufferedOutputStream(Files.newOutputStream(gzipTemp))) {
+                json.write(header);
+                gzipFileOut.write(header);
+                try (GZIPOutputStream gzip = new GZIPOutputStream(gzipFileOut)) {
+                    renderer.render(node, renderer.depthFor(selector), new TeeOutputStream(json, gzip));
+                }
+            }
+
+            // Atomic replace so concurrent readers see either the old or the new file
+            Files.move(jsonTemp, jsonFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(gzipTemp, gzipFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            deleteQuietly(jsonTemp);
+            deleteQuietly(gzipTemp);
+        }
+    }
+
+    private boolean isBinaryNode(Node node) throws RepositoryException {
+        return (node.hasNode("jcr:content") && node.getNode("jcr:content").hasProperty("jcr:data"))
+                || node.hasNode("jcr:content/renditions/original");
+    }
+
+    /**
+     * Open a snapshot file and read its header.
+     *
+     * @return the snapshot, or null if there is none or its header is unreadable
+     */
+    private Snapshot openFile(Path file, boolean gzip) {
+        try {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                Snapshot snapshot = readHeader(channel, gzip);
+                if (snapshot == null) {
+                    LOG.debug("Ignoring snapshot {} without a valid header", file);
+                    channel.close();
+                }
+                return snapshot;
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            LOG.debug("Could not open snapshot {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    private static Snapshot readHeader(FileChannel channel, boolean gzip) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(MAX_HEADER_SIZE, channel.size()));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) <= 0) {
+                break;
+            }
+        }
+        String head = new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII);
+        int newline = head.indexOf('\n');
+        if (newline < 0) {
+            return null;
+        }
+        String[] fields = head.substring(0, newline).split(" ");
+        if (fields.length != 4 || !HEADER_MAGIC.equals(fields[0])) {
+            return null;
+        }
+        String revision = NO_REVISION.equals(fields[3]) ? null : fields[3];
+        return new Snapshot(channel, gzip, newline + 1, Long.parseLong(fields[2]), fields[1], revision);
+    }
+
+    private Path snapshotDir(String path) {
+        Path dir = nodeDir(path);
+        return dir != null ? dir.resolve(SNAPSHOT_DIR) : null;
+    }
+
+    /**
+     * Map a content path onto the store, rejecting anything that would escape it.
+     */
+    private Path nodeDir(String path) {
+        if (path == null || !path.startsWith("/")) {
+            return null;
+        }
+        for (String segment : path.substring(1).split("/")) {
+            if (segment.isEmpty() || segment.equals(".") || segment.equals("..")) {
+                return null;
+            }
+        }
+        Path dir = root.resolve(path.substring(1)).normalize();
+        return dir.startsWith(root) ? dir : null;
+    }
+
+    private String variantName(String selector) {
+        if (selector == null || selector.isEmpty()) {
+            return DEFAULT_VARIANT;
+        }
+        return selector.replace('/', '_');
+    }
+
+    private static void closeQuietly(Snapshot snapshot) {
+        try {
+            snapshot.close();
+        } catch (IOException e) {
+            LOG.debug("Could not close snapshot: {}", e.getMessage());
+        }
+    }
+
+    private void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOG.debug("Could not delete {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * An open snapshot file ready to be transferred to the client.
+     * The body starts after the header, at {@link #getOffset()}.
+     */
+    public static class Snapshot implements Closeable {
+        private final FileChannel channel;
+        private final boolean gzip;
+        private final long offset;
+        private final long lastModified;
+        private final String etag;
+        private final String revision;
+
+        Snapshot(FileChannel channel, boolean gzip, long offset, long lastModified, String etag, String revision) {
+            this.channel = channel;
+            this.gzip = gzip;
+            this.offset = offset;
+            this.lastModified = lastModified;
+            this.etag = etag;
+            this.revision = revision;
+        }
+
+        public FileChannel getChannel() {
+            return channel;
+        }
+
+        /**
+         * Position of the body in the file.
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * Size of the body in bytes.
+         */
+        public long getLength() throws IOException {
+            return channel.size() - offset;
+        }
+
+        public boolean isGzip() {
+            return gzip;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Validator of the identity rendering.
+         */
+        public String getETag() {
+            return etag;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
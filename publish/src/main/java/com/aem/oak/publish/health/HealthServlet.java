@@ -1,6 +1,9 @@
 package com.aem.oak.publish.health;
 
+import com.aem.oak.core.blobstore.BlobCache;
+import com.aem.oak.core.blobstore.S3BlobStoreFactory;
 import com.aem.oak.publish.content.CacheService;
+import com.aem.oak.publish.content.CacheSnapshotService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
@@ -42,6 +45,12 @@ public class HealthServlet extends SlingSafeMethodsServlet {
     @Reference(cardinality = ReferenceCardinality.OPTIONAL)
     private CacheService cacheService;
 
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL)
+    private CacheSnapshotService cacheSnapshotService;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL)
+    private S3BlobStoreFactory blobStoreFactory;
+
     @Override
     protected void doGet(SlingHttpServletRequest request, SlingHttpServletResponse response)
             throws ServletException, IOException {
@@ -82,6 +91,12 @@ public class HealthServlet extends SlingSafeMethodsServlet {
             healthy = false;
         }
 
+        // Hold traffic back until the cache snapshot is loaded
+        if (cacheSnapshotService != null && !cacheSnapshotService.isWarm()) {
+            result.put("cache", "warming");
+            healthy = false;
+        }
+
         result.put("status", healthy ? "ok" : "unhealthy");
         result.put("check", "readiness");
 
@@ -117,14 +132,33 @@ public class HealthServlet extends SlingSafeMethodsServlet {
             CacheService.CacheStats cacheStats = cacheService.getStats();
             Map<String, Object> cacheStatus = new HashMap<>();
             cacheStatus.put("entries", cacheStats.getEntries());
-            cacheStatus.put("maxEntries", cacheStats.getMaxEntries());
+            cacheStatus.put("maxSize", cacheStats.getMaxSize());
             cacheStatus.put("totalSize", cacheStats.getTotalSize());
             cacheStatus.put("hits", cacheStats.getHits());
             cacheStatus.put("misses", cacheStats.getMisses());
             cacheStatus.put("hitRate", String.format("%.2f%%", cacheStats.getHitRate() * 100));
+            cacheStatus.put("coalesced", cacheStats.getCoalesced());
+            cacheStatus.put("coalesceTimeouts", cacheStats.getCoalesceTimeouts());
+            cacheStatus.put("staleHits", cacheStats.getStaleHits());
+            cacheStatus.put("staleIfError", cacheStats.getStaleIfError());
+            cacheStatus.put("l2Hits", cacheStats.getL2Hits());
             result.put("cache", cacheStatus);
         }
 
+        // Blob cache status
+        BlobCache blobCache = blobStoreFactory != null ? blobStoreFactory.getBlobCache() : null;
+        if (blobCache != null) {
+            Map<String, Object> blobCacheStatus = new HashMap<>();
+            long lookups = blobCache.getHits() + blobCache.getMisses();
+            blobCacheStatus.put("size", blobCache.getSize());
+            blobCacheStatus.put("maxSize", blobCache.getMaxSize());
+            blobCacheStatus.put("hits", blobCache.getHits());
+            blobCacheStatus.put("misses", blobCache.getMisses());
+            blobCacheStatus.put("hitRate", String.format("%.2f%%", lookups > 0 ? blobCache.getHits() * 100.0 / lookups : 0.0));
+            blobCacheStatus.put("evictions", blobCache.getEvictions());
+            result.put("blobCache", blobCacheStatus);
+        }
+
         // JVM stats
         Map<String, Object> jvmStats = new HashMap<>();
         RuntimeMXBean runtimeMXBean = ManagementFactory.getRuntimeMXBean();
@@ -1,5 +1,8 @@
 package com.aem.oak.publish.replication;
 
+import com.aem.oak.publish.content.CacheService;
+import com.aem.oak.publish.content.PathExistenceService;
+import com.aem.oak.publish.content.SnapshotStore;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
@@ -20,8 +23,11 @@ import java.math.BigDecimal;
 import java.time.Instant;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.zip.GZIPInputStream;
 
 /**
@@ -56,6 +62,15 @@ public class ReplicationReceiver extends SlingAllMethodsServlet {
     @Reference
     private Repository repository;
 
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL)
+    private CacheService cacheService;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL)
+    private SnapshotStore snapshotStore;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL)
+    private PathExistenceService pathExistence;
+
     private Config config;
 
     @Activate
@@ -154,12 +169,39 @@ public class ReplicationReceiver extends SlingAllMethodsServlet {
         try {
             session = repository.login(new SimpleCredentials("admin", "admin".toCharArray()));
 
-            // Import content
-            importNode(session, pkg.getPath(), pkg.getRootNode(), pkg.getBinaries());
+            // Tags removed by this activation must evict entries as well as the new ones
+            Set<String> tags = collectTags(session, pkg.getPath());
+
+            // Import content, recording every node whose rendering changes
+            Set<String> changed = new LinkedHashSet<>();
+            Set<String> removed = new LinkedHashSet<>();
+            importNode(session, pkg.getPath(), pkg.getRootNode(), pkg.getBinaries(), changed, removed);
 
             session.save();
 
             LOG.info("Successfully imported content at: {}", pkg.getPath());
+            tags.addAll(collectTags(session, pkg.getPath()));
+
+            // Record the new paths before evicting, so no request sees them as missing
+            if (pathExistence != null) {
+                markExists(pkg.getPath(), pkg.getRootNode());
+            }
+
+            // Pre-render snapshots and drop stale cache entries for the new content.
+            // Entries are indexed by the paths they render, so each imported node
+            // and each parent that gained a child is invalidated, in one batch.
+            // Replaced children all lie below the package root, whose subtree
+            // covers them and whatever was below them.
+            if (snapshotStore != null) {
+                snapshotStore.refresh(changed, removed);
+            }
+            if (cacheService != null) {
+                if (!removed.isEmpty()) {
+                    cacheService.invalidateSubtree(pkg.getPath());
+                }
+                cacheService.invalidatePaths(changed);
+                cacheService.invalidateTags(tags);
+            }
 
             // Send success response
             Map<String, Object> result = new HashMap<>();
@@ -186,6 +228,7 @@ public class ReplicationReceiver extends SlingAllMethodsServlet {
         try {
             session = repository.login(new SimpleCredentials("admin", "admin".toCharArray()));
 
+            Set<String> tags = collectTags(session, path);
             if (session.nodeExists(path)) {
                 session.getNode(path).remove();
                 session.save();
@@ -194,6 +237,14 @@ public class ReplicationReceiver extends SlingAllMethodsServlet {
                 LOG.info("Content already deleted or doesn't exist: {}", path);
             }
 
+            if (snapshotStore != null) {
+                snapshotStore.remove(path);
+            }
+            if (cacheService != null) {
+                cacheService.invalidateSubtree(path);
+                cacheService.invalidateTags(tags);
+            }
+
             // Send success response
             Map<String, Object> result = new HashMap<>();
             result.put("success", true);
@@ -214,8 +265,59 @@ public class ReplicationReceiver extends SlingAllMethodsServlet {
         }
     }
 
+    /**
+     * Record an imported node and its children with the path existence service.
+     */
+    private void markExists(String path, NodeData nodeData) {
+        pathExistence.markExists(path);
+        if (nodeData == null) {
+            return;
+        }
+        for (NodeData child : nodeData.getChildren()) {
+            markExists(path + "/" + child.getName(), child);
+        }
+    }
+
+    /**
+     * Tags set on a node or its jcr:content, used to evict entries showing them.
+     */
+    private Set<String> collectTags(Session session, String path) throws RepositoryException {
+        Set<String> tags = new HashSet<>();
+        if (!session.nodeExists(path)) {
+            return tags;
+        }
+
+        Node node = session.getNode(path);
+        addTags(node, tags);
+        if (node.hasNode("jcr:content")) {
+            addTags(node.getNode("jcr:content"), tags);
+        }
+        return tags;
+    }
+
+    private void addTags(Node node, Set<String> tags) throws RepositoryException {
+        if (!node.hasProperty("cq:tags")) {
+            return;
+        }
+        Property property = node.getProperty("cq:tags");
+        if (property.isMultiple()) {
+            for (Value value : property.getValues()) {
+                tags.add(value.getString());
+            }
+        } else {
+            tags.add(property.getString());
+        }
+    }
+
+    /**
+     * Import the package root, replacing its children.
+     *
+     * @param changed receives the imported paths and the parent of each created node
+     * @param removed receives the replaced children
+     */
     private void importNode(Session session, String path, ContentPackage.NodeData nodeData,
-                           Map<String, byte[]> binaries) throws RepositoryException, IOException {
+                           Map<String, byte[]> binaries, Set<String> changed, Set<String> removed)
+            throws RepositoryException, IOException {
 
         // Get or create parent path
         String parentPath = path.substring(0, path.lastIndexOf('/'));
@@ -227,7 +329,7 @@ public class ReplicationReceiver extends SlingAllMethodsServlet {
         if (session.nodeExists(parentPath)) {
             parent = session.getNode(parentPath);
         } else {
-            parent = createPath(session, parentPath);
+            parent = createPath(session, parentPath, changed);
         }
 
         // Create or update node
@@ -239,11 +341,15 @@ public class ReplicationReceiver extends SlingAllMethodsServlet {
             // Remove existing children to replace with new content
             var children = node.getNodes();
             while (children.hasNext()) {
-                children.nextNode().remove();
+                Node child = children.nextNode();
+                removed.add(child.getPath());
+                child.remove();
             }
         } else {
+            changed.add(parent.getPath());
             node = parent.addNode(nodeName, nodeData.getPrimaryType());
         }
+        changed.add(node.getPath());
 
         // Set properties
         for (Map.Entry<String, ContentPackage.PropertyData> entry : nodeData.getProperties().entrySet()) {
@@ -252,12 +358,13 @@ public class ReplicationReceiver extends SlingAllMethodsServlet {
 
         // Create child nodes recursively
         for (ContentPackage.NodeData childData : nodeData.getChildren()) {
-            importChildNode(session, node, childData, binaries);
+            importChildNode(session, node, childData, binaries, changed);
         }
     }
 
     private void importChildNode(Session session, Node parent, ContentPackage.NodeData nodeData,
-                                Map<String, byte[]> binaries) throws RepositoryException, IOException {
+                                Map<String, byte[]> binaries, Set<String> changed)
+            throws RepositoryException, IOException {
 
         String nodeName = nodeData.getName();
         Node node;
@@ -267,6 +374,7 @@ public class ReplicationReceiver extends SlingAllMethodsServlet {
         } else {
             node = parent.addNode(nodeName, nodeData.getPrimaryType());
         }
+        changed.add(node.getPath());
 
         // Set properties
         for (Map.Entry<String, ContentPackage.PropertyData> entry : nodeData.getProperties().entrySet()) {
@@ -275,7 +383,7 @@ public class ReplicationReceiver extends SlingAllMethodsServlet {
 
         // Create child nodes recursively
         for (ContentPackage.NodeData childData : nodeData.getChildren()) {
-            importChildNode(session, node, childData, binaries);
+            importChildNode(session, node, childData, binaries, changed);
         }
     }
 
@@ -351,7 +459,10 @@ public class ReplicationReceiver extends SlingAllMethodsServlet {
         }
     }
 
-    private Node createPath(Session session, String path) throws RepositoryException {
+    /**
+     * Create missing folders down to the path, recording each created folder and its parent.
+     */
+    private Node createPath(Session session, String path, Set<String> changed) throws RepositoryException {
         if (path.equals("/")) {
             return session.getRootNode();
         }
@@ -365,7 +476,9 @@ public class ReplicationReceiver extends SlingAllMethodsServlet {
             if (current.hasNode(segment)) {
                 current = current.getNode(segment);
             } else {
+                changed.add(current.getPath());
                 current = current.addNode(segment, "sling:Folder");
+                changed.add(current.getPath());
             }
         }
 
@@ -0,0 +1,82 @@
+package com.aem.oak.publish.content;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ByteRangeTest {
+
+    private static final int MAX_RANGES = 4;
+
+    @Test
+    void closedRange() {
+        List<ByteRange> ranges = ByteRange.parse("bytes=0-99", 1000, MAX_RANGES);
+        assertRanges(ranges, 0, 99);
+        assertEquals(100, ranges.get(0).getLength());
+        assertEquals("bytes 0-99/1000", ranges.get(0).toContentRange(1000));
+    }
+
+    @Test
+    void endIsClampedToSize() {
+        assertRanges(ByteRange.parse("bytes=900-5000", 1000, MAX_RANGES), 900, 999);
+    }
+
+    @Test
+    void openRange() {
+        assertRanges(ByteRange.parse("bytes=500-", 1000, MAX_RANGES), 500, 999);
+    }
+
+    @Test
+    void suffixRange() {
+        assertRanges(ByteRange.parse("bytes=-100", 1000, MAX_RANGES), 900, 999);
+        // A suffix longer than the representation covers all of it
+        assertRanges(ByteRange.parse("bytes=-5000", 1000, MAX_RANGES), 0, 999);
+    }
+
+    @Test
+    void multipleRangesKeepRequestOrder() {
+        assertRanges(ByteRange.parse("bytes=500-599, 0-9,-1", 1000, MAX_RANGES),
+                500, 599, 0, 9, 999, 999);
+    }
+
+    @Test
+    void unsatisfiableRangesAreDropped() {
+        assertTrue(ByteRange.parse("bytes=1000-1999", 1000, MAX_RANGES).isEmpty());
+        assertTrue(ByteRange.parse("bytes=-0", 1000, MAX_RANGES).isEmpty());
+        assertRanges(ByteRange.parse("bytes=2000-,0-0", 1000, MAX_RANGES), 0, 0);
+    }
+
+    @Test
+    void zeroSizeRepresentationSatisfiesNothing() {
+        assertTrue(ByteRange.parse("bytes=0-", 0, MAX_RANGES).isEmpty());
+        assertTrue(ByteRange.parse("bytes=0-0", 0, MAX_RANGES).isEmpty());
+        assertTrue(ByteRange.parse("bytes=-10", 0, MAX_RANGES).isEmpty());
+    }
+
+    @Test
+    void tooManyRangesAreIgnored() {
+        assertNull(ByteRange.parse("bytes=0-0,2-2,4-4,6-6,8-8", 1000, MAX_RANGES));
+        assertNotNull(ByteRange.parse("bytes=0-0,2-2,4-4,6-6", 1000, MAX_RANGES));
+    }
+
+    @Test
+    void malformedHeadersAreIgnored() {
+        assertNull(ByteRange.parse(null, 1000, MAX_RANGES));
+        assertNull(ByteRange.parse("items=0-10", 1000, MAX_RANGES));
+        assertNull(ByteRange.parse("bytes=10", 1000, MAX_RANGES));
+        assertNull(ByteRange.parse("bytes=-", 1000, MAX_RANGES));
+        assertNull(ByteRange.parse("bytes=20-10", 1000, MAX_RANGES));
+        assertNull(ByteRange.parse("bytes=a-b", 1000, MAX_RANGES));
+    }
+
+    private static void assertRanges(List<ByteRange> ranges, long... bounds) {
+        assertNotNull(ranges);
+        assertEquals(bounds.length / 2, ranges.size());
+        for (int i = 0; i < ranges.size(); i++) {
+            assertEquals(bounds[2 * i], ranges.get(i).getStart(), "start of range " + i);
+            assertEquals(bounds[2 * i + 1], ranges.get(i).getEnd(), "end of range " + i);
+        }
+    }
+}
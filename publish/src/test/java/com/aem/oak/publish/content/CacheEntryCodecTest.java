@@ -0,0 +1,113 @@
+package com.aem.oak.publish.content;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheEntryCodecTest {
+
+    private static final byte[] JSON = "{\"jcr:title\":\"Page\",\"items\":[1,2,3]}".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void roundTripKeepsMetadata() {
+        CacheDependencies dependencies = new CacheDependencies();
+        dependencies.addPath("/content/site/page");
+        dependencies.addPath("/content/dam/image.png");
+        dependencies.addTag("site:news");
+        dependencies.markSubtree();
+        CacheService.CacheEntry entry = new CacheService.CacheEntry(JSON, "application/json",
+                "\"abc\"", 1000L, 2000L, dependencies);
+
+        CacheService.CacheEntry decoded = CacheEntryCodec.decode(CacheEntryCodec.encode(entry));
+
+        assertNotNull(decoded);
+        assertArrayEquals(JSON, decoded.getData());
+        assertNull(decoded.getGzipData());
+        assertEquals("application/json", decoded.getContentType());
+        assertEquals("\"abc\"", decoded.getETag());
+        assertEquals(1000L, decoded.getLastModified());
+        assertEquals(2000L, decoded.getCreatedTime());
+        assertEquals(Set.of("/content/site/page", "/content/dam/image.png"), decoded.getDependencies().getPaths());
+        assertEquals(Set.of("site:news"), decoded.getDependencies().getTags());
+        assertTrue(decoded.getDependencies().isSubtree());
+    }
+
+    @Test
+    void missingETagAndDependencies() {
+        CacheService.CacheEntry entry = new CacheService.CacheEntry(JSON, "application/json");
+
+        CacheService.CacheEntry decoded = CacheEntryCodec.decode(CacheEntryCodec.encode(entry));
+
+        assertNotNull(decoded);
+        assertNull(decoded.getETag());
+        assertTrue(decoded.getDependencies().getPaths().isEmpty());
+        assertTrue(decoded.getDependencies().getTags().isEmpty());
+        assertFalse(decoded.getDependencies().isSubtree());
+    }
+
+    @Test
+    void compressesBodiesAboveThreshold() {
+        byte[] body = repeat(JSON, 100);
+        CacheService.CacheEntry entry = new CacheService.CacheEntry(body, "application/json");
+
+        byte[] encoded = CacheEntryCodec.encode(entry, 1024);
+        CacheService.CacheEntry decoded = CacheEntryCodec.decode(encoded);
+
+        assertTrue(encoded.length < body.length);
+        assertNotNull(decoded);
+        assertArrayEquals(body, decoded.getData());
+        assertNotNull(decoded.getGzipData());
+        assertEquals((byte) 0x1f, decoded.getGzipData()[0]);
+        assertEquals((byte) 0x8b, decoded.getGzipData()[1]);
+    }
+
+    @Test
+    void keepsSmallAndIncompressibleBodiesRaw() {
+        CacheService.CacheEntry small = new CacheService.CacheEntry(JSON, "application/json");
+        assertNull(CacheEntryCodec.decode(CacheEntryCodec.encode(small, 1024)).getGzipData());
+
+        byte[] random = new byte[4096];
+        new Random(42).nextBytes(random);
+        CacheService.CacheEntry incompressible = new CacheService.CacheEntry(random, "application/octet-stream");
+        CacheService.CacheEntry decoded = CacheEntryCodec.decode(CacheEntryCodec.encode(incompressible, 1024));
+        assertArrayEquals(random, decoded.getData());
+        assertNull(decoded.getGzipData());
+    }
+
+    @Test
+    void storesExistingGzipVariant() {
+        byte[] body = repeat(JSON, 100);
+        byte[] gzip = ContentEncoding.gzip(body);
+        CacheService.CacheEntry entry = new CacheService.CacheEntry(body, "application/json").withGzip(gzip);
+
+        CacheService.CacheEntry decoded = CacheEntryCodec.decode(CacheEntryCodec.encode(entry));
+
+        assertNotNull(decoded);
+        assertArrayEquals(body, decoded.getData());
+        assertArrayEquals(gzip, decoded.getGzipData());
+    }
+
+    @Test
+    void rejectsForeignAndTruncatedValues() {
+        assertNull(CacheEntryCodec.decode(null));
+        assertNull(CacheEntryCodec.decode(new byte[0]));
+        assertNull(CacheEntryCodec.decode(JSON));
+
+        byte[] encoded = CacheEntryCodec.encode(new CacheService.CacheEntry(JSON, "application/json"));
+        assertNull(CacheEntryCodec.decode(Arrays.copyOf(encoded, encoded.length - 1)));
+        assertNull(CacheEntryCodec.decode(Arrays.copyOf(encoded, 20)));
+    }
+
+    private static byte[] repeat(byte[] data, int times) {
+        byte[] result = new byte[data.length * times];
+        for (int i = 0; i < times; i++) {
+            System.arraycopy(data, 0, result, i * data.length, data.length);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,171 @@
+package com.aem.oak.publish.content;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hit rate of the local cache replaying an access log, read-through as the
+ * delivery servlet does: a miss is followed by a put.
+ *
+ * <p>The trace holds one request per line, either a bare URL or a Common Log
+ * Format line whose request URL is used; other lines are skipped. Every
+ * iteration replays the whole trace against an empty cache and reports
+ * {@code hits}, {@code misses} and {@code hitRate} (percent). Run with
+ * {@code mvn -pl publish test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.aem.oak.publish.content.CacheReplayBenchmark
+ * -Dexec.args=/path/to/access.log}.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@Threads(1)
+public class CacheReplayBenchmark {
+
+    @Param({""})
+    public String trace;
+
+    @Param({"67108864", "268435456"})
+    public long maxSizeBytes;
+
+    @Param({"false", "true"})
+    public boolean offHeap;
+
+    @Param({"4096"})
+    public int bodySize;
+
+    private String[][] requests;
+    private CacheService.CacheEntry entry;
+    private CacheService cacheService;
+
+    @Setup(Level.Trial)
+    public void loadTrace() {
+        if (trace.isEmpty()) {
+            throw new IllegalStateException("Pass the access log with -p trace=<file>");
+        }
+        List<String[]> parsed = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(Path.of(trace), StandardCharsets.UTF_8)) {
+                String[] request = parse(line);
+                if (request != null) {
+                    parsed.add(request);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        requests = parsed.toArray(new String[0][]);
+
+        byte[] body = new byte[bodySize];
+        Arrays.fill(body, (byte) 'x');
+        entry = new CacheService.CacheEntry(body, "application/json", "etag", 0L);
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        cacheService = new CacheService();
+        cacheService.activate(Configs.of(CacheService.Config.class, Map.<String, Object>of(
+                "maxSizeBytes", maxSizeBytes,
+                "offHeapEnabled", offHeap,
+                "l2Enabled", false,
+                "gzipEnabled", false)));
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        cacheService.deactivate();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long hits;
+        public long misses;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            hits = 0;
+            misses = 0;
+        }
+
+        public double hitRate() {
+            long total = hits + misses;
+            return total > 0 ? 100.0 * hits / total : 0;
+        }
+    }
+
+    @Benchmark
+    public void replay(Counters counters) {
+        for (String[] request : requests) {
+            if (cacheService.get(request[0], request[1], request[2]) != null) {
+                counters.hits++;
+            } else {
+                counters.misses++;
+                cacheService.put(request[0], request[1], request[2], entry);
+            }
+        }
+    }
+
+    /**
+     * Split a trace line into resource path, selector string and extension.
+     *
+     * @return null if the line holds no request URL
+     */
+    static String[] parse(String line) {
+        String url = line.trim();
+        int quote = url.indexOf('"');
+        if (quote >= 0) {
+            // Common Log Format: "METHOD URL PROTOCOL"
+            String[] request = url.substring(quote + 1).split(" ");
+            if (request.length < 2) {
+                return null;
+            }
+            url = request[1];
+        }
+        int query = url.indexOf('?');
+        if (query >= 0) {
+            url = url.substring(0, query);
+        }
+        if (!url.startsWith("/")) {
+            return null;
+        }
+
+        int dot = url.indexOf('.', url.lastIndexOf('/'));
+        if (dot < 0) {
+            return new String[]{url, null, null};
+        }
+        String path = url.substring(0, dot);
+        String suffix = url.substring(dot + 1);
+        int last = suffix.lastIndexOf('.');
+        String selector = last >= 0 ? suffix.substring(0, last) : null;
+        String extension = last >= 0 ? suffix.substring(last + 1) : suffix;
+        return new String[]{path, selector, extension};
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        if (args.length < 1) {
+            System.err.println("Usage: CacheReplayBenchmark <access log>");
+            return;
+        }
+        new Runner(new OptionsBuilder()
+                .include(CacheReplayBenchmark.class.getName())
+                .param("trace", args[0])
+                .build())
+                .run();
+    }
+}
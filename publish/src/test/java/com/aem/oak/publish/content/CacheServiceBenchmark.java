@@ -0,0 +1,127 @@
+package com.aem.oak.publish.content;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the local cache under concurrent gets and puts, on heap and off heap.
+ *
+ * <p>Keys are drawn with a skew towards a hot set, like page traffic. Run at
+ * 16, 32 and 64 threads with
+ * {@code mvn -pl publish test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.aem.oak.publish.content.CacheServiceBenchmark}.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheServiceBenchmark {
+
+    private static final int KEYS = 100_000;
+    private static final int[] BODY_SIZES = {512, 2048, 8192, 32768};
+
+    @Param({"false", "true"})
+    public boolean offHeap;
+
+    private CacheService cacheService;
+    private String[] paths;
+    private CacheService.CacheEntry[] entries;
+
+    @Setup
+    public void setUp() {
+        cacheService = new CacheService();
+        cacheService.activate(Configs.of(CacheService.Config.class, Map.<String, Object>of(
+                "maxSizeBytes", 256L * 1024 * 1024,
+                "offHeapEnabled", offHeap,
+                "l2Enabled", false,
+                "gzipEnabled", false)));
+
+        paths = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            paths[i] = "/content/site/page" + (i / 100) + "/item" + i;
+        }
+        entries = new CacheService.CacheEntry[BODY_SIZES.length];
+        for (int i = 0; i < BODY_SIZES.length; i++) {
+            byte[] body = new byte[BODY_SIZES[i]];
+            Arrays.fill(body, (byte) 'x');
+            entries[i] = new CacheService.CacheEntry(body, "application/json", "etag" + i, 0L);
+        }
+
+        for (int i = 0; i < KEYS; i++) {
+            cacheService.put(paths[i], null, "json", entry(i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        cacheService.deactivate();
+    }
+
+    /**
+     * Per-thread key cursor, cubed so low indexes are drawn far more often.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private final SplittableRandom random = new SplittableRandom();
+
+        int next() {
+            double u = random.nextDouble();
+            return (int) (KEYS * u * u * u);
+        }
+
+        boolean write(int percent) {
+            return random.nextInt(100) < percent;
+        }
+    }
+
+    @Benchmark
+    public CacheService.CacheEntry get(Cursor cursor) {
+        return cacheService.get(paths[cursor.next()], null, "json");
+    }
+
+    @Benchmark
+    public void put(Cursor cursor) {
+        int i = cursor.next();
+        cacheService.put(paths[i], null, "json", entry(i));
+    }
+
+    /**
+     * Read-through traffic: mostly gets, one in ten replaced as if re-rendered.
+     */
+    @Benchmark
+    public CacheService.CacheEntry mixed(Cursor cursor) {
+        int i = cursor.next();
+        if (cursor.write(10)) {
+            cacheService.put(paths[i], null, "json", entry(i));
+            return null;
+        }
+        CacheService.CacheEntry entry = cacheService.get(paths[i], null, "json");
+        if (entry == null) {
+            cacheService.put(paths[i], null, "json", entry(i));
+        }
+        return entry;
+    }
+
+    private CacheService.CacheEntry entry(int i) {
+        return entries[i % entries.length];
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[]{16, 32, 64}) {
+            new Runner(new OptionsBuilder()
+                    .include(CacheServiceBenchmark.class.getName())
+                    .threads(threads)
+                    .build())
+                    .run();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.aem.oak.publish.content;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+/**
+ * Builds OSGi configuration annotations outside a framework.
+ * Attributes not overridden return their declared defaults.
+ */
+final class Configs {
+
+    private Configs() {
+    }
+
+    static <T extends Annotation> T of(Class<T> type, Map<String, Object> overrides) {
+        Object config = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if (overrides.containsKey(name)) {
+                        return overrides.get(name);
+                    }
+                    switch (name) {
+                        case "annotationType":
+                            return type;
+                        case "toString":
+                            return type.getSimpleName() + overrides;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return method.getDefaultValue();
+                    }
+                });
+        return type.cast(config);
+    }
+}
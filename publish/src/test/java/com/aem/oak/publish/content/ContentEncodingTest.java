@@ -0,0 +1,27 @@
+package com.aem.oak.publish.content;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentEncodingTest {
+
+    @Test
+    void acceptsListedGzip() {
+        assertTrue(ContentEncoding.acceptsGzip("gzip"));
+        assertTrue(ContentEncoding.acceptsGzip("br, gzip;q=0.5, deflate"));
+        assertTrue(ContentEncoding.acceptsGzip("X-GZIP"));
+        assertTrue(ContentEncoding.acceptsGzip("*"));
+    }
+
+    @Test
+    void honoursRefusals() {
+        assertFalse(ContentEncoding.acceptsGzip(null));
+        assertFalse(ContentEncoding.acceptsGzip("identity"));
+        assertFalse(ContentEncoding.acceptsGzip("gzip;q=0"));
+        assertFalse(ContentEncoding.acceptsGzip("gzip; q=0.0, br"));
+        assertFalse(ContentEncoding.acceptsGzip("*, gzip;q=0"));
+        assertFalse(ContentEncoding.acceptsGzip("*;q=0"));
+        assertFalse(ContentEncoding.acceptsGzip("gzip, gzip;q=0"));
+    }
+}
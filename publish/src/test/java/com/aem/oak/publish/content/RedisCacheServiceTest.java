@@ -0,0 +1,128 @@
+package com.aem.oak.publish.content;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.args.ClientType;
+import redis.clients.jedis.params.ClientKillParams;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Near cache coherence of {@link RedisCacheService} against a real Redis.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class RedisCacheServiceTest {
+
+    private static final String PATH = "/content/site/page";
+    private static final String KEY = "aem:cache:" + PATH + "::json";
+    private static final long TIMEOUT_MS = 5000;
+
+    @Container
+    private static final GenericContainer<?> REDIS = new GenericContainer<>("redis:7-alpine")
+            .withExposedPorts(6379);
+
+    private RedisCacheService service;
+    private Jedis jedis;
+
+    @BeforeEach
+    void setUp() {
+        jedis = new Jedis(REDIS.getHost(), REDIS.getMappedPort(6379));
+        jedis.flushAll();
+
+        service = new RedisCacheService();
+        service.activate(Configs.of(RedisCacheService.Config.class, Map.<String, Object>of(
+                "redisHost", REDIS.getHost(),
+                "redisPort", REDIS.getMappedPort(6379),
+                "connectionTimeout", 2000,
+                "operationTimeout", 2000,
+                "readTimeout", 2000)));
+        await(service::isTracking, "tracking to start");
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.deactivate();
+        jedis.close();
+    }
+
+    @Test
+    void writeByAnotherClientDropsNearEntry() {
+        set(KEY, "{\"v\":1}");
+        assertEquals("{\"v\":1}", body(service.get(PATH, null, "json")));
+        assertNotNull(service.getNear(KEY));
+
+        set(KEY, "{\"v\":2}");
+        await(() -> service.getNear(KEY) == null, "tracking invalidation");
+        assertEquals("{\"v\":2}", body(service.get(PATH, null, "json")));
+    }
+
+    @Test
+    void lostSubscriptionDropsNearCache() {
+        set(KEY, "{\"v\":1}");
+        service.get(PATH, null, "json");
+        assertNotNull(service.getNear(KEY));
+
+        // Invalidations sent while the subscriber is gone are lost
+        jedis.clientKill(new ClientKillParams().type(ClientType.PUBSUB));
+        await(() -> !service.isTracking(), "tracking to stop");
+        assertNull(service.getNear(KEY));
+
+        await(service::isTracking, "tracking to resume");
+        assertNull(service.getNear(KEY));
+    }
+
+    @Test
+    void invalidationDuringReadIsNotCached() {
+        CacheService.CacheEntry entry = new CacheService.CacheEntry(
+                "{}".getBytes(StandardCharsets.UTF_8), "application/json");
+
+        long generation = service.nearGeneration();
+        service.onKeyInvalidated(KEY);
+        service.putNear(KEY, entry, generation);
+        assertNull(service.getNear(KEY));
+
+        service.putNear(KEY, entry, service.nearGeneration());
+        assertSame(entry, service.getNear(KEY));
+    }
+
+    /**
+     * Write an entry as another instance would, and wait for its own
+     * invalidation so it cannot race a later read.
+     */
+    private void set(String key, String json) {
+        CacheService.CacheEntry entry = new CacheService.CacheEntry(
+                json.getBytes(StandardCharsets.UTF_8), "application/json");
+        long generation = service.nearGeneration();
+        jedis.set(key.getBytes(StandardCharsets.UTF_8), CacheEntryCodec.encode(entry));
+        await(() -> service.nearGeneration() > generation, "invalidation of " + key);
+    }
+
+    private static String body(CacheService.CacheEntry entry) {
+        assertNotNull(entry);
+        return new String(entry.getData(), StandardCharsets.UTF_8);
+    }
+
+    private static void await(BooleanSupplier condition, String what) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out waiting for " + what);
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail("Interrupted waiting for " + what);
+            }
+        }
+    }
+}
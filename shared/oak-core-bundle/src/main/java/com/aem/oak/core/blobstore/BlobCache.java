@@ -0,0 +1,410 @@
+package com.aem.oak.core.blobstore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Size-bounded, LRU-evicted on-disk cache for blobs and blob chunks.
+ *
+ * <p>Files are populated at most once per name at a time: concurrent misses
+ * wait for the first loader, which writes to a temporary file and moves it
+ * into place atomically, so readers never see a partial file. Entries read
+ * repeatedly are memory-mapped and served from the page cache without a
+ * system call per read. Files left by a previous run are adopted on startup.</p>
+ *
+ * <p>An evicted file that is still mapped keeps its disk blocks until the
+ * mapping is garbage collected, so those bytes count towards the size limit
+ * until then, and mappings are capped at a quarter of it.</p>
+ */
+public final class BlobCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BlobCache.class);
+    private static final String TEMP_SUFFIX = ".tmp";
+    // Reads after which an entry is memory-mapped
+    private static final int MMAP_AFTER_HITS = 2;
+    private static final long MMAP_MAX_SIZE = 64L * 1024 * 1024;
+    // Tracks when mappings of evicted files are released
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    /**
+     * Returned by {@link #read} when the entry was evicted before it could be read.
+     */
+    public static final int NOT_CACHED = -2;
+
+    /**
+     * Writes the content of a cache entry.
+     */
+    public interface Loader {
+        void load(OutputStream out) throws IOException;
+    }
+
+    private final Path directory;
+    private final long maxBytes;
+    private final long maxMappedBytes;
+    // Access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final Map<String, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+    private long size;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    // Live mappings, and those of them whose file has been deleted
+    private final AtomicLong mappedBytes = new AtomicLong();
+    private final AtomicLong orphanedBytes = new AtomicLong();
+
+    public BlobCache(Path directory, long maxBytes) throws IOException {
+        this.directory = directory.toAbsolutePath().normalize();
+        this.maxBytes = maxBytes;
+        this.maxMappedBytes = maxBytes / 4;
+        Files.createDirectories(this.directory);
+        adoptExisting();
+    }
+
+    /**
+     * Read from an entry, populating it with {@code loader} first if it is not cached.
+     *
+     * @return bytes read, -1 if {@code pos} is past the end, or {@link #NOT_CACHED}
+     *         if the entry was evicted before it could be read
+     */
+    public int read(String name, long pos, byte[] buff, int off, int length, Loader loader) throws IOException {
+        Entry entry = touch(name);
+        if (entry != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            entry = load(name, loader);
+        }
+        if (pos >= entry.length) {
+            return -1;
+        }
+        int n = (int) Math.min(length, entry.length - pos);
+
+        try {
+            MappedByteBuffer mapped = entry.mapped;
+            if (mapped == null && entry.hits.incrementAndGet() >= MMAP_AFTER_HITS && entry.length <= MMAP_MAX_SIZE) {
+                mapped = map(entry);
+            }
+            if (mapped != null) {
+                // Evicted meanwhile: still readable, the mapping is released once unused
+                ByteBuffer view = mapped.duplicate();
+                view.position((int) pos);
+                view.get(buff, off, n);
+                return n;
+            }
+
+            try (FileChannel channel = FileChannel.open(entry.file, StandardOpenOption.READ)) {
+                ByteBuffer target = ByteBuffer.wrap(buff, off, n);
+                long position = pos;
+                while (target.hasRemaining()) {
+                    int read = channel.read(target, position);
+                    if (read < 0) {
+                        break;
+                    }
+                    position += read;
+                }
+                return n - target.remaining();
+            }
+        } catch (NoSuchFileException e) {
+            return NOT_CACHED;
+        }
+    }
+
+    /**
+     * Open an entry as a stream, populating it with {@code loader} first if it is not cached.
+     *
+     * @return the stream, or null if the entry was evicted before it could be opened
+     */
+    public InputStream open(String name, Loader loader) throws IOException {
+        Entry entry = touch(name);
+        if (entry != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            entry = load(name, loader);
+        }
+        try {
+            return Files.newInputStream(entry.file);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Move an existing file into the cache, e.g. a freshly uploaded blob.
+     * The file is consumed either way.
+     */
+    public void put(String name, Path file) throws IOException {
+        if (touch(name) != null) {
+            Files.deleteIfExists(file);
+            return;
+        }
+        Path temp = Files.createTempFile(directory, ".put", TEMP_SUFFIX);
+        Files.move(file, temp, StandardCopyOption.REPLACE_EXISTING);
+        add(name, temp);
+    }
+
+    /**
+     * Remove an entry and every entry whose name starts with {@code name + "."}.
+     */
+    public void remove(String name) {
+        synchronized (entries) {
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Entry> next = it.next();
+                if (next.getKey().equals(name) || next.getKey().startsWith(name + ".")) {
+                    it.remove();
+                    delete(next.getValue());
+                }
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getSize() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+
+    public long getMaxSize() {
+        return maxBytes;
+    }
+
+    /**
+     * Bytes currently memory-mapped, including evicted files not yet unmapped.
+     */
+    public long getMappedBytes() {
+        return mappedBytes.get();
+    }
+
+    private Entry touch(String name) {
+        synchronized (entries) {
+            return entries.get(name);
+        }
+    }
+
+    /**
+     * Populate an entry. Concurrent loads of the same name share a single
+     * download; the loader writes to a temporary file that is moved into place
+     * only once complete.
+     */
+    private Entry load(String name, Loader loader) throws IOException {
+        CompletableFuture<Entry> mine = new CompletableFuture<>();
+        CompletableFuture<Entry> running = loading.putIfAbsent(name, mine);
+        if (running != null) {
+            return await(running);
+        }
+
+        try {
+            Path temp = Files.createTempFile(directory, ".load", TEMP_SUFFIX);
+            Entry entry;
+            try {
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                    loader.load(out);
+                }
+                entry = add(name, temp);
+                temp = null;
+            } finally {
+                if (temp != null) {
+                    Files.deleteIfExists(temp);
+                }
+            }
+            mine.complete(entry);
+            return entry;
+        } catch (IOException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(name, mine);
+        }
+    }
+
+    /**
+     * Move a completed temporary file into place and evict down to the size limit.
+     */
+    private Entry add(String name, Path temp) throws IOException {
+        Path file = directory.resolve(name);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Entry entry = new Entry(file, Files.size(file));
+
+        synchronized (entries) {
+            Entry previous = entries.put(name, entry);
+            if (previous != null) {
+                size -= previous.length;
+            }
+            size += entry.length;
+            evictOverflow(name);
+        }
+        return entry;
+    }
+
+    private void evictOverflow(String keep) {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (size + orphanedBytes.get() > maxBytes && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            if (eldest.getKey().equals(keep)) {
+                continue;
+            }
+            it.remove();
+            delete(eldest.getValue());
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void delete(Entry entry) {
+        size -= entry.length;
+        synchronized (entry) {
+            entry.deleted = true;
+            if (entry.mapping != null) {
+                // The blocks stay allocated until the mapping is collected
+                entry.mapping.orphaned = true;
+                orphanedBytes.addAndGet(entry.length);
+                entry.mapped = null;
+            }
+        }
+        // Open channels and mappings stay readable after the unlink
+        try {
+            Files.deleteIfExists(entry.file);
+        } catch (IOException e) {
+            LOG.warn("Failed to delete cached blob file {}", entry.file, e);
+        }
+    }
+
+    /**
+     * Map an entry, unless it was evicted or the mapped total would exceed its cap.
+     *
+     * @return the mapping, or null to read through a channel instead
+     */
+    private MappedByteBuffer map(Entry entry) throws IOException {
+        synchronized (entry) {
+            if (entry.mapped != null || entry.deleted) {
+                return entry.mapped;
+            }
+            if (mappedBytes.get() + entry.length > maxMappedBytes) {
+                return null;
+            }
+            try (FileChannel channel = FileChannel.open(entry.file, StandardOpenOption.READ)) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, entry.length);
+                Mapping mapping = new Mapping(entry.length);
+                mappedBytes.addAndGet(entry.length);
+                CLEANER.register(mapped, () -> {
+                    mappedBytes.addAndGet(-mapping.length);
+                    if (mapping.orphaned) {
+                        orphanedBytes.addAndGet(-mapping.length);
+                    }
+                });
+                entry.mapping = mapping;
+                entry.mapped = mapped;
+                return mapped;
+            }
+        }
+    }
+
+    private static Entry await(CompletableFuture<Entry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for blob cache load");
+        } catch (ExecutionException e) {
+            throw new IOException("Blob cache load failed", e.getCause());
+        }
+    }
+
+    /**
+     * Index files from a previous run, oldest first so they are evicted first,
+     * and drop leftover temporary files.
+     */
+    private void adoptExisting() throws IOException {
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(directory)) {
+            files = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        files.sort(Comparator.comparingLong(BlobCache::lastModified));
+
+        synchronized (entries) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                Entry entry = new Entry(file, Files.size(file));
+                entries.put(name, entry);
+                size += entry.length;
+            }
+            evictOverflow(null);
+        }
+        LOG.info("Blob cache at {} holds {} files ({} bytes, max {})", directory, entries.size(), size, maxBytes);
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static final class Entry {
+        private final Path file;
+        private final long length;
+        private final AtomicLong hits = new AtomicLong();
+        private volatile MappedByteBuffer mapped;
+        // Guarded by the entry
+        private Mapping mapping;
+        private boolean deleted;
+
+        private Entry(Path file, long length) {
+            this.file = file;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Bookkeeping of one mapping, kept apart from the buffer so the cleanup
+     * action does not keep the buffer reachable.
+     */
+    private static final class Mapping {
+        private final long length;
+        private volatile boolean orphaned;
+
+        private Mapping(long length) {
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.aem.oak.core.blobstore;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory LRU of blob chunks, bounded by total bytes.
+ * Keys are {@code blobId + "#" + chunkIndex}.
+ */
+final class ChunkCache {
+
+    private final long maxBytes;
+    // Access-ordered, so iteration starts at the least recently used chunk
+    private final LinkedHashMap<String, byte[]> chunks = new LinkedHashMap<>(64, 0.75f, true);
+    private long size;
+
+    ChunkCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    static String key(String blobId, long index) {
+        return blobId + "#" + index;
+    }
+
+    synchronized byte[] get(String key) {
+        return chunks.get(key);
+    }
+
+    synchronized boolean contains(String key) {
+        return chunks.containsKey(key);
+    }
+
+    synchronized void put(String key, byte[] chunk) {
+        byte[] previous = chunks.put(key, chunk);
+        if (previous != null) {
+            size -= previous.length;
+        }
+        size += chunk.length;
+
+        Iterator<Map.Entry<String, byte[]>> it = chunks.entrySet().iterator();
+        while (size > maxBytes && it.hasNext()) {
+            Map.Entry<String, byte[]> eldest = it.next();
+            if (eldest.getKey().equals(key)) {
+                continue;
+            }
+            size -= eldest.getValue().length;
+            it.remove();
+        }
+    }
+
+    synchronized void removeBlob(String blobId) {
+        String prefix = blobId + "#";
+        Iterator<Map.Entry<String, byte[]>> it = chunks.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, byte[]> next = it.next();
+            if (next.getKey().startsWith(prefix)) {
+                size -= next.getValue().length;
+                it.remove();
+            }
+        }
+    }
+
+    synchronized void clear() {
+        chunks.clear();
+        size = 0;
+    }
+}
@@ -5,33 +5,112 @@ import org.apache.jackrabbit.oak.spi.blob.BlobOptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.ContentStreamProvider;
 import software.amazon.awssdk.core.sync.ResponseTransformer;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Custom BlobStore implementation backed by S3 (MinIO compatible).
  * Stores blobs in S3 with SHA-256 content addressing.
+ *
+ * <p>Writes are spooled to a temporary file while hashing, so heap use does
+ * not depend on blob size. Once the hash is known the blob is uploaded
+ * straight to its content-addressed key, in parallel multipart parts when it
+ * is larger than {@code CHUNK_SIZE}; an incomplete multipart upload is never
+ * visible, so no staging key or copy is needed.</p>
+ *
+ * <p>Reads are aligned to a configurable chunk size: the chunk around the
+ * requested window is fetched once and kept in a small in-memory LRU, so the
+ * many small windows Oak reads are served from memory. When a blob is read
+ * chunk after chunk, the next chunk is prefetched in the background.</p>
+ *
+ * <p>With a {@link BlobCache}, chunks are also kept on local disk. Blobs up to
+ * {@code MAX_WHOLE_BLOB_SIZE} are cached whole, and small uploads are moved
+ * into the cache straight from the spool file; larger blobs are cached chunk
+ * by chunk, so a range read fetches only the chunks it touches.</p>
  */
 public class S3BlobStore implements BlobStore {
 
     private static final Logger LOG = LoggerFactory.getLogger(S3BlobStore.class);
     private static final int CHUNK_SIZE = 2 * 1024 * 1024; // 2MB chunks
     private static final String PREFIX = "blobs/";
+    private static final int PART_SIZE = 8 * 1024 * 1024; // S3 minimum is 5MB
+    private static final int UPLOAD_THREADS = 4;
+    private static final long MAX_WHOLE_BLOB_SIZE = 16L * 1024 * 1024;
+    private static final long DEFAULT_CHUNK_CACHE_SIZE = 64L * 1024 * 1024;
+    private static final int PREFETCH_THREADS = 2;
+    private static final int PREFETCH_QUEUE_SIZE = 64;
+    // Blobs whose last read chunk is remembered for sequential detection
+    private static final int MAX_TRACKED_READS = 1024;
 
     private final S3Client s3Client;
     private final String bucket;
     private final ConcurrentHashMap<String, Long> blobLengthCache = new ConcurrentHashMap<>();
+    private final ExecutorService uploadExecutor = Executors.newFixedThreadPool(UPLOAD_THREADS);
+    private final BlobCache cache;
+    private final int chunkSize;
+    private final ChunkCache chunks;
+    private final Map<String, CompletableFuture<byte[]>> chunkLoads = new ConcurrentHashMap<>();
+    private final Map<String, Long> lastChunkRead = Collections.synchronizedMap(
+            new LinkedHashMap<String, Long>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                    return size() > MAX_TRACKED_READS;
+                }
+            });
+    // Prefetches are best effort: dropped when the queue is full
+    private final ThreadPoolExecutor prefetchExecutor = new ThreadPoolExecutor(
+            PREFETCH_THREADS, PREFETCH_THREADS, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(PREFETCH_QUEUE_SIZE), new ThreadPoolExecutor.DiscardPolicy());
 
     public S3BlobStore(S3Client s3Client, String bucket) {
+        this(s3Client, bucket, null);
+    }
+
+    /**
+     * @param cache local blob cache, or null to always read from S3
+     */
+    public S3BlobStore(S3Client s3Client, String bucket, BlobCache cache) {
+        this(s3Client, bucket, cache, CHUNK_SIZE, DEFAULT_CHUNK_CACHE_SIZE);
+    }
+
+    /**
+     * @param cache           local blob cache, or null to always read from S3
+     * @param chunkSize       bytes fetched per read, aligned to multiples of this size
+     * @param chunkCacheBytes heap used for recently read chunks, 0 to disable read-ahead
+     */
+    public S3BlobStore(S3Client s3Client, String bucket, BlobCache cache, int chunkSize, long chunkCacheBytes) {
         this.s3Client = s3Client;
         this.bucket = bucket;
+        this.cache = cache;
+        this.chunkSize = chunkSize > 0 ? chunkSize : CHUNK_SIZE;
+        this.chunks = chunkCacheBytes > 0 ? new ChunkCache(chunkCacheBytes) : null;
     }
 
     @Override
@@ -41,46 +120,254 @@ public class S3BlobStore implements BlobStore {
 
     @Override
     public String writeBlob(InputStream in, BlobOptions options) throws IOException {
+        Path spool = Files.createTempFile("oak-blob", ".spool");
         try {
-            // Read the entire stream to calculate hash
-            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            // Spool to disk while hashing; the key is only known once the stream is consumed
             MessageDigest digest = MessageDigest.getInstance("SHA-256");
-
-            byte[] data = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = in.read(data)) != -1) {
-                buffer.write(data, 0, bytesRead);
-                digest.update(data, 0, bytesRead);
+            try (OutputStream out = new DigestOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(spool)), digest)) {
+                in.transferTo(out);
             }
 
-            byte[] content = buffer.toByteArray();
+            long length = Files.size(spool);
             String blobId = bytesToHex(digest.digest());
 
             // Check if blob already exists
             String key = PREFIX + blobId;
             if (!blobExists(key)) {
-                // Upload to S3
-                s3Client.putObject(
-                        PutObjectRequest.builder()
-                                .bucket(bucket)
-                                .key(key)
-                                .contentLength((long) content.length)
-                                .build(),
-                        RequestBody.fromBytes(content)
-                );
-                LOG.debug("Uploaded blob: {} ({} bytes)", blobId, content.length);
-            }
-
-            blobLengthCache.put(blobId, (long) content.length);
+                if (length > CHUNK_SIZE) {
+                    uploadMultipart(key, spool, length);
+                } else {
+                    s3Client.putObject(
+                            PutObjectRequest.builder()
+                                    .bucket(bucket)
+                                    .key(key)
+                                    .contentLength(length)
+                                    .build(),
+                            RequestBody.fromFile(spool)
+                    );
+                }
+                LOG.debug("Uploaded blob: {} ({} bytes)", blobId, length);
+            }
+
+            blobLengthCache.put(blobId, length);
+            if (cache != null && length <= MAX_WHOLE_BLOB_SIZE) {
+                // Freshly written content is usually read back soon
+                try {
+                    cache.put(blobId, spool);
+                } catch (IOException e) {
+                    LOG.warn("Failed to cache blob {}", blobId, e);
+                }
+            }
             return blobId;
 
         } catch (NoSuchAlgorithmException e) {
             throw new IOException("SHA-256 not available", e);
+        } finally {
+            Files.deleteIfExists(spool);
+        }
+    }
+
+    /**
+     * Upload a spooled blob in {@link #PART_SIZE} parts, several at a time.
+     * Each part is streamed from its range of the spool file. The upload is
+     * aborted on failure so that no orphaned parts are left behind.
+     */
+    private void uploadMultipart(String key, Path spool, long length) throws IOException {
+        String uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .build()).uploadId();
+
+        List<Future<CompletedPart>> futures = new ArrayList<>();
+        try {
+            int partNumber = 1;
+            for (long offset = 0; offset < length; offset += PART_SIZE, partNumber++) {
+                long partOffset = offset;
+                long partLength = Math.min(PART_SIZE, length - offset);
+                int number = partNumber;
+                futures.add(uploadExecutor.submit(() -> uploadPart(key, uploadId, number, spool, partOffset, partLength)));
+            }
+
+            // Futures are in part order, as S3 requires
+            List<CompletedPart> parts = new ArrayList<>(futures.size());
+            for (Future<CompletedPart> future : futures) {
+                parts.add(future.get());
+            }
+
+            s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build())
+                    .build());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(future -> future.cancel(true));
+            abortMultipart(key, uploadId);
+            throw new InterruptedIOException("Interrupted uploading " + key);
+        } catch (ExecutionException | RuntimeException e) {
+            futures.forEach(future -> future.cancel(true));
+            abortMultipart(key, uploadId);
+            Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            throw new IOException("Failed to upload blob: " + key, cause);
+        }
+    }
+
+    private CompletedPart uploadPart(String key, String uploadId, int partNumber, Path spool,
+                                     long offset, long length) {
+        // A fresh stream per attempt, so the SDK can retry a part
+        ContentStreamProvider provider = () -> {
+            try {
+                return new FileRangeInputStream(spool, offset, length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+        UploadPartResponse response = s3Client.uploadPart(UploadPartRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .uploadId(uploadId)
+                        .partNumber(partNumber)
+                        .contentLength(length)
+                        .build(),
+                RequestBody.fromContentProvider(provider, length, "application/octet-stream"));
+        return CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build();
+    }
+
+    private void abortMultipart(String key, String uploadId) {
+        try {
+            s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .build());
+        } catch (S3Exception e) {
+            LOG.warn("Failed to abort multipart upload {} for {}", uploadId, key, e);
         }
     }
 
     @Override
     public int readBlob(String blobId, long pos, byte[] buff, int off, int length) throws IOException {
+        if (chunks == null && cache == null) {
+            return readRange(blobId, pos, buff, off, length);
+        }
+
+        long blobLength = getBlobLength(blobId);
+        if (pos >= blobLength) {
+            return -1;
+        }
+        if (chunks == null) {
+            int n = readCached(blobId, blobLength, pos, buff, off, length);
+            return n == BlobCache.NOT_CACHED ? readRange(blobId, pos, buff, off, length) : n;
+        }
+
+        long index = pos / chunkSize;
+        byte[] chunk = getChunk(blobId, index, blobLength);
+        if (isSequential(blobId, index) && (index + 1) * chunkSize < blobLength) {
+            prefetch(blobId, index + 1, blobLength);
+        }
+
+        // Read at most to the end of the chunk; callers loop for the rest
+        int offset = (int) (pos - index * chunkSize);
+        int n = Math.min(length, chunk.length - offset);
+        System.arraycopy(chunk, offset, buff, off, n);
+        return n;
+    }
+
+    /**
+     * A chunk from memory, or fetched and remembered. Concurrent requests for
+     * the same chunk, including a prefetch in progress, share one fetch.
+     */
+    private byte[] getChunk(String blobId, long index, long blobLength) throws IOException {
+        String key = ChunkCache.key(blobId, index);
+        byte[] chunk = chunks.get(key);
+        if (chunk != null) {
+            return chunk;
+        }
+
+        CompletableFuture<byte[]> mine = new CompletableFuture<>();
+        CompletableFuture<byte[]> running = chunkLoads.putIfAbsent(key, mine);
+        if (running != null) {
+            try {
+                return running.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted reading blob " + blobId);
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to read blob: " + blobId, e.getCause());
+            }
+        }
+
+        try {
+            chunk = fetchChunk(blobId, index, blobLength);
+            chunks.put(key, chunk);
+            mine.complete(chunk);
+            return chunk;
+        } catch (IOException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            chunkLoads.remove(key, mine);
+        }
+    }
+
+    private byte[] fetchChunk(String blobId, long index, long blobLength) throws IOException {
+        long start = index * chunkSize;
+        int length = (int) Math.min(chunkSize, blobLength - start);
+        byte[] chunk = new byte[length];
+        if (cache != null && readCached(blobId, blobLength, start, chunk, 0, length) == length) {
+            return chunk;
+        }
+        if (readRange(blobId, start, chunk, 0, length) != length) {
+            throw new IOException("Short read of blob " + blobId + " at " + start);
+        }
+        return chunk;
+    }
+
+    /**
+     * Read through the disk cache, from the whole blob or from the chunk holding {@code pos}.
+     *
+     * @return bytes read, or {@link BlobCache#NOT_CACHED}
+     */
+    private int readCached(String blobId, long blobLength, long pos, byte[] buff, int off, int length)
+            throws IOException {
+        if (blobLength <= MAX_WHOLE_BLOB_SIZE) {
+            return cache.read(blobId, pos, buff, off, length, out -> download(blobId, 0, blobLength, out));
+        }
+        long chunkStart = pos / chunkSize * chunkSize;
+        long chunkLength = Math.min(chunkSize, blobLength - chunkStart);
+        // The name records the range, so a changed chunk size never reuses a stale file
+        return cache.read(blobId + "." + chunkStart + "-" + chunkLength, pos - chunkStart, buff, off, length,
+                out -> download(blobId, chunkStart, chunkLength, out));
+    }
+
+    /**
+     * Whether a read of chunk {@code index} continues from the previous chunk of the same blob.
+     */
+    private boolean isSequential(String blobId, long index) {
+        Long previous = lastChunkRead.put(blobId, index);
+        return previous != null && previous == index - 1;
+    }
+
+    private void prefetch(String blobId, long index, long blobLength) {
+        String key = ChunkCache.key(blobId, index);
+        if (chunks.contains(key) || chunkLoads.containsKey(key)) {
+            return;
+        }
+        prefetchExecutor.execute(() -> {
+            try {
+                getChunk(blobId, index, blobLength);
+            } catch (IOException | RuntimeException e) {
+                LOG.debug("Prefetch of blob {} chunk {} failed", blobId, index, e);
+            }
+        });
+    }
+
+    /**
+     * Read a byte range straight from S3.
+     */
+    private int readRange(String blobId, long pos, byte[] buff, int off, int length) throws IOException {
         String key = PREFIX + blobId;
 
         try {
@@ -111,6 +398,30 @@ public class S3BlobStore implements BlobStore {
         }
     }
 
+    /**
+     * Copy a byte range of a blob from S3 into a cache entry.
+     */
+    private void download(String blobId, long pos, long length, OutputStream out) throws IOException {
+        if (length == 0) {
+            return;
+        }
+        GetObjectRequest request = GetObjectRequest.builder()
+                .bucket(bucket)
+                .key(PREFIX + blobId)
+                .range("bytes=" + pos + "-" + (pos + length - 1))
+                .build();
+        try (InputStream is = s3Client.getObject(request, ResponseTransformer.toInputStream())) {
+            if (is.transferTo(out) != length) {
+                throw new IOException("Short read of blob " + blobId + " at " + pos);
+            }
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                throw new IOException("Blob not found: " + blobId);
+            }
+            throw new IOException("Failed to read blob: " + blobId, e);
+        }
+    }
+
     @Override
     public long getBlobLength(String blobId) throws IOException {
         // Check cache first
@@ -141,6 +452,16 @@ public class S3BlobStore implements BlobStore {
 
     @Override
     public InputStream getInputStream(String blobId) throws IOException {
+        if (cache != null) {
+            long length = getBlobLength(blobId);
+            if (length <= MAX_WHOLE_BLOB_SIZE) {
+                InputStream cached = cache.open(blobId, out -> download(blobId, 0, length, out));
+                if (cached != null) {
+                    return cached;
+                }
+            }
+        }
+
         String key = PREFIX + blobId;
         try {
             return s3Client.getObject(
@@ -170,6 +491,20 @@ public class S3BlobStore implements BlobStore {
         return blobId;
     }
 
+    /**
+     * Object key under which a blob is stored.
+     */
+    static String keyOf(String blobId) {
+        return PREFIX + blobId;
+    }
+
+    /**
+     * Local blob cache, or null if disabled.
+     */
+    public BlobCache getBlobCache() {
+        return cache;
+    }
+
     /**
      * Deletes a blob from S3.
      */
@@ -183,6 +518,12 @@ public class S3BlobStore implements BlobStore {
                             .build()
             );
             blobLengthCache.remove(blobId);
+            if (cache != null) {
+                cache.remove(blobId);
+            }
+            if (chunks != null) {
+                chunks.removeBlob(blobId);
+            }
             LOG.debug("Deleted blob: {}", blobId);
         } catch (S3Exception e) {
             LOG.warn("Failed to delete blob: {}", blobId, e);
@@ -227,10 +568,70 @@ public class S3BlobStore implements BlobStore {
      * Closes the blob store.
      */
     public void close() {
+        shutdown(prefetchExecutor);
+        shutdown(uploadExecutor);
         blobLengthCache.clear();
+        if (chunks != null) {
+            chunks.clear();
+        }
         LOG.info("S3BlobStore closed");
     }
 
+    private static void shutdown(ExecutorService executor) {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stream over one byte range of a file, read with positional reads.
+     */
+    private static final class FileRangeInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private long remaining;
+
+        FileRangeInputStream(Path file, long offset, long length) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            this.position = offset;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), position);
+            if (n <= 0) {
+                return -1;
+            }
+            position += n;
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
     /**
      * Converts bytes to hex string.
      */
@@ -38,6 +38,13 @@ public @interface S3BlobStoreConfig {
     )
     String bucket() default "oak-blobs";
 
+    @AttributeDefinition(
+        name = "Public Endpoint",
+        description = "Endpoint used in presigned URLs handed to clients (empty = S3 endpoint). "
+                + "Can be overridden by S3_PUBLIC_ENDPOINT env var."
+    )
+    String publicEndpoint() default "";
+
     @AttributeDefinition(
         name = "Region",
         description = "S3 region. Can be overridden by S3_REGION env var."
@@ -70,7 +77,19 @@ public @interface S3BlobStoreConfig {
 
     @AttributeDefinition(
         name = "Cache Size (MB)",
-        description = "Maximum size of local blob cache in megabytes"
+        description = "Maximum size of local blob cache in megabytes (0 disables the cache)"
     )
     int cacheSize() default 1024;
+
+    @AttributeDefinition(
+        name = "Read Chunk Size (KB)",
+        description = "Blob reads fetch whole chunks of this size, aligned to multiples of it"
+    )
+    int readChunkSize() default 2048;
+
+    @AttributeDefinition(
+        name = "Read-Ahead Cache Size (MB)",
+        description = "Heap used for recently read and prefetched chunks (0 disables read-ahead)"
+    )
+    int readAheadCacheSize() default 64;
 }
@@ -11,10 +11,16 @@ import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Configuration;
 import software.amazon.awssdk.services.s3.model.*;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
 
 import java.io.*;
 import java.net.URI;
+import java.net.URL;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.Properties;
 
 /**
@@ -33,6 +39,7 @@ public class S3BlobStoreFactory {
 
     private S3BlobStoreConfig config;
     private S3Client s3Client;
+    private S3Presigner presigner;
     private S3BlobStore blobStore;
 
     @Activate
@@ -47,6 +54,10 @@ public class S3BlobStoreFactory {
         if (s3Client != null) {
             s3Client.close();
         }
+        if (presigner != null) {
+            presigner.close();
+            presigner = null;
+        }
         if (blobStore != null) {
             try {
                 blobStore.close();
@@ -84,6 +95,18 @@ public class S3BlobStoreFactory {
                 .forcePathStyle(true) // Required for MinIO
                 .build();
 
+        // Presigned URLs are followed by clients, so they may need a public endpoint
+        String publicEndpoint = getEnvOrConfig("S3_PUBLIC_ENDPOINT", config.publicEndpoint());
+        presigner = S3Presigner.builder()
+                .endpointOverride(URI.create(publicEndpoint.isEmpty() ? endpoint : publicEndpoint))
+                .region(Region.of(region))
+                .credentialsProvider(StaticCredentialsProvider.create(
+                        AwsBasicCredentials.create(accessKey, secretKey)))
+                .serviceConfiguration(S3Configuration.builder()
+                        .pathStyleAccessEnabled(true) // Required for MinIO
+                        .build())
+                .build();
+
         // Ensure bucket exists
         ensureBucketExists();
     }
@@ -112,11 +135,36 @@ public class S3BlobStoreFactory {
      */
     public BlobStore createBlobStore() {
         if (blobStore == null) {
-            blobStore = new S3BlobStore(s3Client, getEnvOrConfig("S3_BUCKET", config.bucket()));
+            blobStore = new S3BlobStore(s3Client, getEnvOrConfig("S3_BUCKET", config.bucket()), createBlobCache(),
+                    config.readChunkSize() * 1024, config.readAheadCacheSize() * 1024L * 1024L);
         }
         return blobStore;
     }
 
+    /**
+     * Creates the local blob cache, or returns null if it is disabled or the
+     * directory cannot be used; reads then go to S3.
+     */
+    private BlobCache createBlobCache() {
+        if (config.cacheSize() <= 0) {
+            LOG.info("Local blob cache is disabled");
+            return null;
+        }
+        try {
+            return new BlobCache(Paths.get(config.cacheDirectory()), config.cacheSize() * 1024L * 1024L);
+        } catch (IOException e) {
+            LOG.warn("Could not open blob cache at {}, reading from S3 only", config.cacheDirectory(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Gets the local blob cache for metrics, or null if there is none.
+     */
+    public BlobCache getBlobCache() {
+        return blobStore != null ? blobStore.getBlobCache() : null;
+    }
+
     /**
      * Gets the S3 client for direct operations.
      */
@@ -124,6 +172,29 @@ public class S3BlobStoreFactory {
         return s3Client;
     }
 
+    /**
+     * Creates a presigned GET URL for a blob, for direct client downloads.
+     *
+     * @param blobId the blob id
+     * @param validity how long the URL stays valid
+     * @param contentType response content type to request from S3, or null
+     * @return the presigned URL
+     */
+    public URL createPresignedGetUrl(String blobId, Duration validity, String contentType) {
+        GetObjectRequest.Builder request = GetObjectRequest.builder()
+                .bucket(getEnvOrConfig("S3_BUCKET", config.bucket()))
+                .key(S3BlobStore.keyOf(blobId));
+        if (contentType != null) {
+            request.responseContentType(contentType);
+        }
+
+        return presigner.presignGetObject(GetObjectPresignRequest.builder()
+                .signatureDuration(validity)
+                .getObjectRequest(request.build())
+                .build())
+                .url();
+    }
+
     /**
      * Gets a configuration value from environment or config.
      */
@@ -0,0 +1,179 @@
+package com.aem.oak.core.blobstore;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlobCacheTest {
+
+    private static final int SIZE = 100;
+    private static final long TIMEOUT_MS = 5000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void evictsLeastRecentlyUsed() throws IOException {
+        // Small enough that nothing is mapped
+        BlobCache cache = new BlobCache(directory, 3 * SIZE);
+        read(cache, "a");
+        read(cache, "b");
+        read(cache, "c");
+
+        read(cache, "a");
+        read(cache, "d");
+
+        assertEquals(1, cache.getEvictions());
+        assertEquals(3 * SIZE, cache.getSize());
+        assertFalse(Files.exists(directory.resolve("b")));
+
+        long misses = cache.getMisses();
+        read(cache, "a");
+        assertEquals(misses, cache.getMisses());
+        read(cache, "b");
+        assertEquals(misses + 1, cache.getMisses());
+    }
+
+    @Test
+    void concurrentMissesShareOneLoad() throws Exception {
+        BlobCache cache = new BlobCache(directory, 10 * SIZE);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        BlobCache.Loader loader = out -> {
+            loads.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            out.write(content("x"));
+        };
+
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<byte[]>> reads = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                reads.add(executor.submit(() -> read(cache, "x", loader)));
+            }
+            // Every reader has missed; give the last ones time to join the first load
+            await(() -> cache.getMisses() == threads, "all readers to miss");
+            Thread.sleep(100);
+            release.countDown();
+
+            for (Future<byte[]> read : reads) {
+                assertArrayEquals(content("x"), read.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            }
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+        assertEquals(1, loads.get());
+        assertEquals(SIZE, cache.getSize());
+    }
+
+    @Test
+    void evictedMappedFilesCountUntilUnmapped() throws IOException {
+        // A quarter of the limit may be mapped: exactly one entry
+        BlobCache cache = new BlobCache(directory, 4 * SIZE);
+        read(cache, "a");
+        read(cache, "a");
+        assertEquals(SIZE, cache.getMappedBytes());
+
+        read(cache, "b");
+        read(cache, "c");
+        read(cache, "d");
+        assertEquals(0, cache.getEvictions());
+
+        // Evicting "a" leaves its blocks allocated, so "b" has to go as well
+        read(cache, "e");
+        assertEquals(2, cache.getEvictions());
+        assertEquals(3 * SIZE, cache.getSize());
+        assertFalse(Files.exists(directory.resolve("a")));
+        assertFalse(Files.exists(directory.resolve("b")));
+
+        await(() -> {
+            System.gc();
+            return cache.getMappedBytes() == 0;
+        }, "the evicted mapping to be released");
+        read(cache, "f");
+        assertEquals(2, cache.getEvictions());
+        assertEquals(4 * SIZE, cache.getSize());
+    }
+
+    @Test
+    void adoptsFilesFromPreviousRun() throws IOException {
+        Files.write(directory.resolve("old"), content("old"));
+        Files.write(directory.resolve("new"), content("new"));
+        Files.write(directory.resolve("newest"), content("newest"));
+        Files.write(directory.resolve(".load123.tmp"), content("partial"));
+        long now = System.currentTimeMillis();
+        Files.setLastModifiedTime(directory.resolve("old"), FileTime.fromMillis(now - 20000));
+        Files.setLastModifiedTime(directory.resolve("new"), FileTime.fromMillis(now - 10000));
+        Files.setLastModifiedTime(directory.resolve("newest"), FileTime.fromMillis(now));
+
+        // Oldest first, so the oldest file is the one that does not fit
+        BlobCache cache = new BlobCache(directory, 2 * SIZE);
+
+        assertEquals(2 * SIZE, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+        assertFalse(Files.exists(directory.resolve("old")));
+        assertFalse(Files.exists(directory.resolve(".load123.tmp")));
+
+        BlobCache.Loader failing = out -> fail("Adopted entries must not be loaded again");
+        assertArrayEquals(content("new"), read(cache, "new", failing));
+        assertArrayEquals(content("newest"), read(cache, "newest", failing));
+        assertEquals(2, cache.getHits());
+        assertEquals(0, cache.getMisses());
+    }
+
+    private static byte[] read(BlobCache cache, String name) throws IOException {
+        byte[] data = read(cache, name, out -> out.write(content(name)));
+        assertArrayEquals(content(name), data);
+        return data;
+    }
+
+    private static byte[] read(BlobCache cache, String name, BlobCache.Loader loader) throws IOException {
+        byte[] buff = new byte[SIZE];
+        assertEquals(SIZE, cache.read(name, 0, buff, 0, SIZE, loader));
+        return buff;
+    }
+
+    private static byte[] content(String name) {
+        byte[] data = new byte[SIZE];
+        Arrays.fill(data, (byte) name.hashCode());
+        return data;
+    }
+
+    private static void await(BooleanSupplier condition, String what) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out waiting for " + what);
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail("Interrupted waiting for " + what);
+            }
+        }
+    }
+}